@@ -0,0 +1,92 @@
+package com.flighttracker.benchmark;
+
+import com.flighttracker.Database;
+import com.flighttracker.FlightTrackerSimple;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A tracker backed by a fresh SQLite file in a temporary directory and the
+ * offline {@link FixedFlightDataFetcher}. Nothing is started: no HTTP
+ * server, no scheduler, only what the benchmark calls directly. The state
+ * snapshot written on shutdown goes to the same directory and notifications
+ * are turned off, so a run leaves nothing in the working directory.
+ */
+final class BenchmarkTracker implements AutoCloseable {
+    /** Held so the level survives; per-update INFO logging would dominate the timings. */
+    private static final Logger TRACKER_LOGGER = Logger.getLogger("com.flighttracker");
+
+    static {
+        TRACKER_LOGGER.setLevel(Level.WARNING);
+    }
+
+    private final Path directory;
+    private final Database database;
+    private final FixedFlightDataFetcher fetcher = new FixedFlightDataFetcher();
+    private final FlightTrackerSimple tracker;
+
+    private BenchmarkTracker() throws IOException {
+        directory = Files.createTempDirectory("flight-tracker-bench");
+        database = new Database("jdbc:sqlite:" + directory.resolve("bench.db"), 4);
+        System.setProperty("flighttracker.snapshot.file", directory.resolve("bench.snapshot").toString());
+        System.setProperty("flighttracker.notify.sender", "none");
+        tracker = new FlightTrackerSimple(database, fetcher);
+    }
+
+    static BenchmarkTracker open() throws IOException {
+        return new BenchmarkTracker();
+    }
+
+    /**
+     * Opens a tracker holding the given number of passengers, each flight
+     * updated once, with pointsPerFlight history points.
+     */
+    static BenchmarkTracker populated(int passengers, int pointsPerFlight) throws Exception {
+        BenchmarkTracker bench = open();
+        bench.tracker.processCSV(new StringReader(SyntheticData.passengerCsv(passengers)));
+        bench.updateAllFlights();
+        if (pointsPerFlight > 0) {
+            SyntheticData.seedHistory(bench.database, pointsPerFlight);
+        }
+        return bench;
+    }
+
+    FlightTrackerSimple get() {
+        return tracker;
+    }
+
+    Database database() {
+        return database;
+    }
+
+    /**
+     * Runs a full update cycle and waits until its results are committed, so
+     * the write-behind stage is part of the measurement. Every flight moves
+     * between cycles, so each lookup is a change that gets written.
+     */
+    void updateAllFlights() throws InterruptedException {
+        fetcher.advance();
+        long before = tracker.getStatusWriter().getWritten() + tracker.getStatusWriter().getLost();
+        int flights = tracker.getStateStore().getFlightCount();
+        tracker.updateAllFlights();
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(5);
+        while (tracker.getStatusWriter().getWritten() + tracker.getStatusWriter().getLost() < before + flights) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("Status writes did not complete");
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        tracker.shutdown();
+        database.close();
+        SyntheticData.deleteRecursively(directory);
+    }
+}
@@ -0,0 +1,36 @@
+package com.flighttracker.benchmark;
+
+import com.flighttracker.FlightData;
+import com.flighttracker.FlightDataFetcher;
+import com.flighttracker.FlightKey;
+
+/**
+ * Offline stand-in for the flight data provider. Every flight is airborne,
+ * so it stays scheduled for polling, and its position depends only on the
+ * flight and the cycle, so runs are repeatable. Each {@link #advance()}
+ * moves every flight, otherwise the tracker would skip the unchanged
+ * lookups and a cycle would write nothing.
+ */
+final class FixedFlightDataFetcher implements FlightDataFetcher {
+    private volatile int cycle;
+
+    /**
+     * Starts a new cycle, in which every flight reports a new position.
+     */
+    void advance() {
+        cycle++;
+    }
+
+    @Override
+    public FlightData fetch(FlightKey flight) {
+        int hash = flight.hashCode() & Integer.MAX_VALUE;
+        return new FlightData(
+            "in-air",
+            30 + ((hash + cycle) % 3000) / 100.0,
+            -125 + (hash / 3000 % 5500) / 100.0,
+            35000,
+            450,
+            hash % 360
+        );
+    }
+}
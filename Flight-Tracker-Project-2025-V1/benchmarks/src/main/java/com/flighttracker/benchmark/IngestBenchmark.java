@@ -0,0 +1,58 @@
+package com.flighttracker.benchmark;
+
+import com.flighttracker.PassengerCsvImporter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * CSV upload into an empty database: parsing, batched inserts and loading
+ * the new passengers into the state store and schedule.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class IngestBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int passengers;
+
+    private String csv;
+    private BenchmarkTracker tracker;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        csv = SyntheticData.passengerCsv(passengers);
+    }
+
+    @Setup(Level.Invocation)
+    public void openDatabase() throws IOException {
+        tracker = BenchmarkTracker.open();
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeDatabase() throws IOException {
+        tracker.close();
+    }
+
+    @Benchmark
+    public PassengerCsvImporter.ImportResult processCsv() throws Exception {
+        return tracker.get().processCSV(new StringReader(csv));
+    }
+}
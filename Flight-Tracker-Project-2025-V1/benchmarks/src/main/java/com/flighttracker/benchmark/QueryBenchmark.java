@@ -0,0 +1,131 @@
+package com.flighttracker.benchmark;
+
+import com.flighttracker.Database;
+import com.flighttracker.FlightQuery;
+import com.flighttracker.FlightsSnapshotCache;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Read paths of /api/flights against a populated tracker: the filtered page
+ * served from the state store, the same page as a SQL join over
+ * flight_status_latest for comparison, and a rebuild of the full listing
+ * snapshot (JSON serialization plus gzip).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "-Dflighttracker.update.rps=1000000"})
+public class QueryBenchmark {
+    private static final int HISTORY_POINTS_PER_FLIGHT = 10;
+    private static final String LATEST_STATUS_SQL =
+        "SELECT p.id, p.name, p.airline, p.flight_number, p.departure_airport, p.arrival_airport, " +
+        "p.departure_date, fs.status, fs.latitude, fs.longitude, fs.altitude, fs.velocity, fs.heading " +
+        "FROM passengers p LEFT JOIN flight_status_latest fs ON p.id = fs.passenger_id " +
+        "WHERE p.airline = ? AND p.departure_airport = ? ORDER BY p.id LIMIT 101";
+
+    @Param({"1000", "100000", "1000000"})
+    public int passengers;
+
+    private BenchmarkTracker tracker;
+    private FlightsSnapshotCache cache;
+    private Map<String, String> filtered;
+    private Map<String, String> unfiltered;
+
+    @Setup(Level.Trial)
+    public void populate() throws Exception {
+        tracker = BenchmarkTracker.populated(passengers, HISTORY_POINTS_PER_FLIGHT);
+        cache = tracker.get().getFlightsCache();
+
+        filtered = new HashMap<>();
+        filtered.put("airline", "UA");
+        filtered.put("departureAirport", "JFK");
+        filtered.put("limit", "100");
+        unfiltered = new HashMap<>();
+        unfiltered.put("limit", "1000");
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        tracker.close();
+    }
+
+    @Benchmark
+    public void filteredPage(Blackhole blackhole) throws IOException {
+        FlightQuery.parse(filtered).write(tracker.get().getStateStore(), new DiscardingOutputStream(blackhole));
+    }
+
+    @Benchmark
+    public void firstPage(Blackhole blackhole) throws IOException {
+        FlightQuery.parse(unfiltered).write(tracker.get().getStateStore(), new DiscardingOutputStream(blackhole));
+    }
+
+    @Benchmark
+    public int filteredPageSql(Blackhole blackhole) throws SQLException {
+        int rows = 0;
+        try (Database.Handle db = tracker.database().reader()) {
+            PreparedStatement stmt = db.prepare(LATEST_STATUS_SQL);
+            stmt.setString(1, "UA");
+            stmt.setString(2, "JFK");
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    blackhole.consume(rs.getString("name"));
+                    blackhole.consume(rs.getString("status"));
+                    blackhole.consume(rs.getDouble("latitude"));
+                    rows++;
+                }
+            }
+        }
+        return rows;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public FlightsSnapshotCache.Snapshot fullListing() {
+        cache.invalidate();
+        return cache.get();
+    }
+
+    /**
+     * Sink for response bodies that only feeds the byte count to JMH.
+     */
+    private static final class DiscardingOutputStream extends OutputStream {
+        private final Blackhole blackhole;
+
+        DiscardingOutputStream(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void write(int b) {
+            blackhole.consume(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            blackhole.consume(len);
+        }
+    }
+}
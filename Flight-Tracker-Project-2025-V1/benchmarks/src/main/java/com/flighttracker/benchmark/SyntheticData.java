@@ -0,0 +1,89 @@
+package com.flighttracker.benchmark;
+
+import com.flighttracker.Database;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Deterministic test data: passenger manifests in the upload CSV format and
+ * position histories for the flights they book. The same size always yields
+ * the same data, so runs on different machines are comparable.
+ */
+final class SyntheticData {
+    static final int PASSENGERS_PER_FLIGHT = 3;
+    static final String[] AIRLINES = {
+        "AA", "AC", "AF", "BA", "DL", "EK", "JL", "KE", "LH", "NH",
+        "QF", "QR", "SQ", "TK", "UA", "VS", "WN", "AS", "B6", "F9"
+    };
+    static final String[] AIRPORTS = {
+        "ATL", "BOS", "DEN", "FLL", "JFK", "LAS", "LAX", "MCO", "MDW", "MIA", "ORD", "PHX", "SEA", "SFO"
+    };
+    private static final String[] NAMES = {
+        "John Smith", "Sarah Johnson", "Wei Zhang", "Fatima Ali", "Thomas Weber",
+        "Maria Garcia", "Yuki Tanaka", "Olivia Brown", "Ahmed Hassan", "Priya Patel"
+    };
+    private static final long SEED = 20250320L;
+
+    private SyntheticData() {
+    }
+
+    /**
+     * Builds a manifest of the given number of passengers, three per flight,
+     * departing over the next three days so every flight is still tracked.
+     */
+    static String passengerCsv(int passengers) {
+        Random random = new Random(SEED);
+        LocalDate today = LocalDate.now();
+        StringBuilder csv = new StringBuilder(passengers * 48);
+        csv.append("Name,Airline,Flight Number,Departure Airport,Arrival Airport,Departure Date\n");
+        for (int i = 0; i < passengers; i++) {
+            int flight = i / PASSENGERS_PER_FLIGHT;
+            String departure = AIRPORTS[flight % AIRPORTS.length];
+            String arrival = AIRPORTS[(flight / AIRPORTS.length + 1 + flight) % AIRPORTS.length];
+            csv.append('"').append(NAMES[random.nextInt(NAMES.length)]).append(' ').append(i).append('"')
+                .append(',').append(AIRLINES[flight % AIRLINES.length])
+                .append(',').append(flight / AIRLINES.length + 1)
+                .append(',').append(departure)
+                .append(',').append(arrival)
+                .append(',').append(today.plusDays(flight % 3))
+                .append('\n');
+        }
+        return csv.toString();
+    }
+
+    /**
+     * Appends points per flight to flight_track at one-minute spacing, ending
+     * now. Flights must already have ids, i.e. have been updated once.
+     */
+    static void seedHistory(Database database, int pointsPerFlight) throws SQLException {
+        long now = Instant.now().getEpochSecond();
+        try (Database.Handle db = database.writer()) {
+            PreparedStatement insert = db.prepare(
+                "INSERT OR IGNORE INTO flight_track " +
+                "(flight_id, resolution, ts, status, latitude, longitude, altitude, velocity, heading) " +
+                "SELECT id, 0, ?, 'in-air', 30 + (id % 30), -125 + (id % 55), 35000, 450, id % 360 FROM flights");
+            db.inTransaction(() -> {
+                for (int point = pointsPerFlight; point > 0; point--) {
+                    insert.setLong(1, now - point * 60L);
+                    insert.executeUpdate();
+                }
+            });
+        }
+    }
+
+    static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.flighttracker.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One full update cycle over every tracked flight: lookups through the
+ * update engine against the offline fetcher, state store and spatial index
+ * updates, and the group-committed database writes. The rate limit is lifted
+ * so the cycle is bound by the tracker rather than the provider quota.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "-Dflighttracker.update.rps=1000000"})
+public class UpdateCycleBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int passengers;
+
+    private BenchmarkTracker tracker;
+
+    @Setup(Level.Trial)
+    public void populate() throws Exception {
+        tracker = BenchmarkTracker.populated(passengers, 0);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        tracker.close();
+    }
+
+    @Benchmark
+    public void updateAllFlights() throws InterruptedException {
+        tracker.updateAllFlights();
+    }
+}
@@ -0,0 +1,79 @@
+package com.flighttracker;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Coordinates of airports by IATA code, for radius queries around an
+ * airport. A built-in table covers major airports; a CSV file of
+ * {@code code,latitude,longitude} lines named by
+ * {@code flighttracker.airports.file} adds to or overrides it.
+ */
+final class Airports {
+    private static final Logger LOGGER = Logger.getLogger(Airports.class.getName());
+
+    private static final Object[][] BUILT_IN = {
+        {"ATL", 33.6407, -84.4277}, {"BOS", 42.3656, -71.0096}, {"BWI", 39.1774, -76.6684},
+        {"CLT", 35.2144, -80.9473}, {"DCA", 38.8512, -77.0402}, {"DEN", 39.8561, -104.6737},
+        {"DFW", 32.8998, -97.0403}, {"DTW", 42.2162, -83.3554}, {"EWR", 40.6895, -74.1745},
+        {"FLL", 26.0742, -80.1506}, {"HNL", 21.3187, -157.9225}, {"IAD", 38.9531, -77.4565},
+        {"IAH", 29.9902, -95.3368}, {"JFK", 40.6413, -73.7781}, {"LAS", 36.0840, -115.1537},
+        {"LAX", 33.9416, -118.4085}, {"LGA", 40.7769, -73.8740}, {"MCO", 28.4312, -81.3081},
+        {"MDW", 41.7868, -87.7522}, {"MIA", 25.7959, -80.2870}, {"MSP", 44.8848, -93.2223},
+        {"ORD", 41.9742, -87.9073}, {"PHL", 39.8744, -75.2424}, {"PHX", 33.4342, -112.0116},
+        {"SAN", 32.7338, -117.1933}, {"SEA", 47.4502, -122.3088}, {"SFO", 37.6213, -122.3790},
+        {"SLC", 40.7899, -111.9791}, {"YYZ", 43.6777, -79.6248}, {"MEX", 19.4361, -99.0719},
+        {"LHR", 51.4700, -0.4543}, {"CDG", 49.0097, 2.5479}, {"FRA", 50.0379, 8.5622},
+        {"AMS", 52.3105, 4.7683}, {"DXB", 25.2532, 55.3657}, {"SIN", 1.3644, 103.9915},
+        {"HND", 35.5494, 139.7798}, {"NRT", 35.7720, 140.3929}, {"SYD", -33.9399, 151.1753},
+    };
+
+    private static final Map<String, double[]> COORDINATES = load();
+
+    private Airports() {
+    }
+
+    /**
+     * Returns {latitude, longitude} for an IATA code, or null if unknown.
+     */
+    static double[] lookup(String code) {
+        return code == null ? null : COORDINATES.get(code.trim().toUpperCase(Locale.ROOT));
+    }
+
+    private static Map<String, double[]> load() {
+        Map<String, double[]> coordinates = new HashMap<>();
+        for (Object[] airport : BUILT_IN) {
+            coordinates.put((String) airport[0], new double[] {(Double) airport[1], (Double) airport[2]});
+        }
+
+        String file = System.getProperty("flighttracker.airports.file");
+        if (file != null) {
+            try (BufferedReader reader = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split(",");
+                    if (fields.length < 3) {
+                        continue;
+                    }
+                    try {
+                        coordinates.put(fields[0].trim().toUpperCase(Locale.ROOT), new double[] {
+                            Double.parseDouble(fields[1].trim()), Double.parseDouble(fields[2].trim())});
+                    } catch (NumberFormatException e) {
+                        // Header or malformed line
+                    }
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Could not read airports file " + file, e);
+            }
+        }
+        return coordinates;
+    }
+}
@@ -0,0 +1,170 @@
+package com.flighttracker;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Moves log output off the calling thread. Records go into a bounded queue
+ * ({@code flighttracker.log.queueSize}) and a single daemon thread hands them
+ * to the wrapped handlers, so a slow console or disk never stalls an update
+ * cycle or an import.
+ *
+ * <p>When the queue is full, records below WARNING are dropped and counted;
+ * warnings and errors wait briefly for room. The number dropped is reported
+ * in a later record.
+ */
+public class AsyncLogHandler extends Handler {
+    private static final int QUEUE_CAPACITY = Integer.getInteger("flighttracker.log.queueSize", 8192);
+    private static final long WARNING_WAIT_MILLIS = 100;
+    private static final long FLUSH_TIMEOUT_MILLIS = 2000;
+
+    private final Handler[] delegates;
+    private final BlockingQueue<LogRecord> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread worker;
+    private volatile boolean closed;
+
+    public AsyncLogHandler(Handler... delegates) {
+        this.delegates = delegates;
+        Level lowest = Level.OFF;
+        for (Handler delegate : delegates) {
+            if (delegate.getLevel().intValue() < lowest.intValue()) {
+                lowest = delegate.getLevel();
+            }
+        }
+        super.setLevel(lowest);
+        worker = new Thread(this::run, "async-log");
+        worker.setDaemon(true);
+        worker.start();
+        Metrics.functionCounter("flighttracker_log_records_dropped_total",
+            "Log records dropped because the async queue was full", dropped::get);
+    }
+
+    /**
+     * Replaces the root logger's handlers with one asynchronous handler
+     * wrapping them, unless {@code flighttracker.log.async} is false.
+     */
+    public static void install() {
+        if (!Boolean.parseBoolean(System.getProperty("flighttracker.log.async", "true"))) {
+            return;
+        }
+        Logger root = Logger.getLogger("");
+        Handler[] handlers = root.getHandlers();
+        for (Handler handler : handlers) {
+            if (handler instanceof AsyncLogHandler) {
+                return;
+            }
+        }
+        for (Handler handler : handlers) {
+            root.removeHandler(handler);
+        }
+        root.addHandler(new AsyncLogHandler(handlers));
+    }
+
+    /**
+     * Also lowers the wrapped handlers' levels, so enabling debug output at
+     * runtime reaches them.
+     */
+    @Override
+    public synchronized void setLevel(Level level) {
+        super.setLevel(level);
+        for (Handler delegate : delegates) {
+            if (delegate.getLevel().intValue() > level.intValue()) {
+                delegate.setLevel(level);
+            }
+        }
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (closed || !isLoggable(record)) {
+            return;
+        }
+        // The caller is inferred from the stack, so it must be captured here
+        record.getSourceClassName();
+        if (queue.offer(record)) {
+            return;
+        }
+        if (record.getLevel().intValue() >= Level.WARNING.intValue()) {
+            try {
+                if (queue.offer(record, WARNING_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        dropped.incrementAndGet();
+    }
+
+    /**
+     * Waits briefly for queued records to be written, then flushes the
+     * wrapped handlers.
+     */
+    @Override
+    public void flush() {
+        long deadline = System.currentTimeMillis() + FLUSH_TIMEOUT_MILLIS;
+        while (!queue.isEmpty() && worker.isAlive() && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        for (Handler delegate : delegates) {
+            delegate.flush();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            worker.join(FLUSH_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Handler delegate : delegates) {
+            delegate.close();
+        }
+    }
+
+    private void run() {
+        long reportedDrops = 0;
+        while (!closed || !queue.isEmpty()) {
+            LogRecord record;
+            try {
+                record = queue.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                closed = true;
+                continue;
+            }
+            long drops = dropped.get();
+            if (drops > reportedDrops) {
+                write(new LogRecord(Level.WARNING, "Log queue full, dropped " + (drops - reportedDrops) + " records"));
+                reportedDrops = drops;
+            }
+            if (record != null) {
+                write(record);
+            }
+        }
+    }
+
+    private void write(LogRecord record) {
+        for (Handler delegate : delegates) {
+            try {
+                delegate.publish(record);
+            } catch (RuntimeException e) {
+                reportError("Log handler failed", e, ErrorManager.WRITE_FAILURE);
+            }
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package com.flighttracker;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Shared access to the SQLite database. SQLite allows one writer at a time,
+ * so the pool holds a single writer connection, handed out exclusively, and
+ * a small set of read-only connections. With WAL journaling the readers
+ * never wait on the writer.
+ *
+ * <p>Borrow a connection with try-with-resources:
+ * <pre>
+ * try (Database.Handle db = database.reader()) {
+ *     PreparedStatement stmt = db.prepare("SELECT ...");
+ *     ...
+ * }
+ * </pre>
+ * Statements returned by {@link Handle#prepare} are cached per connection and
+ * must not be closed by the caller; their ResultSets still must be.
+ */
+public class Database {
+    private static final Logger LOGGER = Logger.getLogger(Database.class.getName());
+
+    public static final String DEFAULT_URL = "jdbc:sqlite:flight_tracker.db";
+    private static final int STATEMENT_CACHE_SIZE = 64;
+
+    private static final Metrics.Histogram WRITER_WAIT = Metrics.histogram("flighttracker_db_connection_wait_seconds",
+        "Time spent waiting to borrow a database connection", "pool", "writer");
+    private static final Metrics.Histogram READER_WAIT = Metrics.histogram("flighttracker_db_connection_wait_seconds",
+        "Time spent waiting to borrow a database connection", "pool", "reader");
+    private static final Metrics.Histogram TRANSACTIONS = Metrics.histogram("flighttracker_db_transaction_seconds",
+        "Duration of explicit transactions, including commit");
+    private static final Metrics.Histogram COMMITS = Metrics.histogram("flighttracker_db_commit_seconds",
+        "Duration of transaction commits");
+    private static final Metrics.Counter STATEMENT_HITS = Metrics.counter("flighttracker_db_statement_cache_total",
+        "Prepared statement cache lookups", "result", "hit");
+    private static final Metrics.Counter STATEMENT_MISSES = Metrics.counter("flighttracker_db_statement_cache_total",
+        "Prepared statement cache lookups", "result", "miss");
+
+    private final String url;
+    private final Semaphore writerPermit = new Semaphore(1, true);
+    private final Semaphore readerPermits;
+    private final BlockingQueue<PooledConnection> idleReaders;
+    private final List<PooledConnection> allConnections = new ArrayList<>();
+    private PooledConnection writer;
+
+    public Database(String url, int readers) {
+        this.url = url;
+        this.readerPermits = new Semaphore(readers, true);
+        this.idleReaders = new ArrayBlockingQueue<>(readers);
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Borrows the writer connection, waiting until no one else holds it.
+     */
+    public Handle writer() throws SQLException {
+        long start = System.nanoTime();
+        acquire(writerPermit);
+        WRITER_WAIT.recordSince(start);
+        try {
+            synchronized (this) {
+                if (writer == null) {
+                    writer = open(false);
+                }
+            }
+            return new Handle(writer, writerPermit, null);
+        } catch (SQLException | RuntimeException e) {
+            writerPermit.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Borrows a read-only connection from the pool.
+     */
+    public Handle reader() throws SQLException {
+        long start = System.nanoTime();
+        acquire(readerPermits);
+        READER_WAIT.recordSince(start);
+        try {
+            PooledConnection connection = idleReaders.poll();
+            if (connection == null) {
+                connection = open(true);
+            }
+            return new Handle(connection, readerPermits, idleReaders);
+        } catch (SQLException | RuntimeException e) {
+            readerPermits.release();
+            throw e;
+        }
+    }
+
+    public synchronized void close() {
+        for (PooledConnection connection : allConnections) {
+            connection.closeQuietly();
+        }
+        allConnections.clear();
+        idleReaders.clear();
+        writer = null;
+    }
+
+    private PooledConnection open(boolean readOnly) throws SQLException {
+        Connection connection = DriverManager.getConnection(url);
+        try (Statement stmt = connection.createStatement()) {
+            if (!readOnly) {
+                stmt.execute("PRAGMA journal_mode=WAL");
+            }
+            stmt.execute("PRAGMA synchronous=NORMAL");
+            stmt.execute("PRAGMA busy_timeout=5000");
+            stmt.execute("PRAGMA cache_size=-16384");
+            stmt.execute("PRAGMA mmap_size=268435456");
+            stmt.execute("PRAGMA temp_store=MEMORY");
+            if (readOnly) {
+                stmt.execute("PRAGMA query_only=1");
+            }
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+
+        PooledConnection pooled = new PooledConnection(connection);
+        synchronized (this) {
+            allConnections.add(pooled);
+        }
+        return pooled;
+    }
+
+    private static void acquire(Semaphore semaphore) throws SQLException {
+        try {
+            semaphore.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+    }
+
+    /**
+     * A physical connection together with its prepared statement cache.
+     */
+    private static final class PooledConnection {
+        final Connection connection;
+        final Map<String, PreparedStatement> statements =
+            new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                    if (size() <= STATEMENT_CACHE_SIZE) {
+                        return false;
+                    }
+                    try {
+                        eldest.getValue().close();
+                    } catch (SQLException e) {
+                        LOGGER.log(Level.FINE, "Error closing evicted statement", e);
+                    }
+                    return true;
+                }
+            };
+
+        PooledConnection(Connection connection) {
+            this.connection = connection;
+        }
+
+        void closeQuietly() {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                LOGGER.log(Level.WARNING, "Error closing database connection", e);
+            }
+        }
+    }
+
+    /**
+     * Exclusive use of a pooled connection until {@link #close} is called.
+     * Any transaction still open on close is rolled back.
+     */
+    public static final class Handle implements AutoCloseable {
+        private final PooledConnection pooled;
+        private final Semaphore permit;
+        private final BlockingQueue<PooledConnection> returnTo;
+        private boolean closed;
+
+        private Handle(PooledConnection pooled, Semaphore permit, BlockingQueue<PooledConnection> returnTo) {
+            this.pooled = pooled;
+            this.permit = permit;
+            this.returnTo = returnTo;
+        }
+
+        public Connection connection() {
+            return pooled.connection;
+        }
+
+        /**
+         * Returns a cached PreparedStatement for the SQL, preparing it on first use.
+         */
+        public PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement stmt = pooled.statements.get(sql);
+            if (stmt == null) {
+                STATEMENT_MISSES.increment();
+                stmt = pooled.connection.prepareStatement(sql);
+                pooled.statements.put(sql, stmt);
+            } else {
+                STATEMENT_HITS.increment();
+            }
+            return stmt;
+        }
+
+        /**
+         * Runs the work in a transaction, committing if it completes normally
+         * and rolling back if it throws.
+         */
+        public void inTransaction(SqlWork work) throws SQLException {
+            Connection connection = pooled.connection;
+            long start = System.nanoTime();
+            connection.setAutoCommit(false);
+            try {
+                work.run();
+                long commitStart = System.nanoTime();
+                connection.commit();
+                COMMITS.recordSince(commitStart);
+                TRANSACTIONS.recordSince(start);
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                if (!pooled.connection.getAutoCommit()) {
+                    pooled.connection.rollback();
+                    pooled.connection.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                LOGGER.log(Level.WARNING, "Error resetting pooled connection", e);
+            }
+            if (returnTo != null) {
+                returnTo.offer(pooled);
+            }
+            permit.release();
+        }
+    }
+
+    /**
+     * Unit of work run inside {@link Handle#inTransaction}.
+     */
+    public interface SqlWork {
+        void run() throws SQLException;
+    }
+}
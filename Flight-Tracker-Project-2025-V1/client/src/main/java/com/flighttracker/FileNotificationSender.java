@@ -0,0 +1,32 @@
+package com.flighttracker;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Stub sender that appends each notification to a file as one line of
+ * JSON, for development and testing without a mail or SMS provider.
+ */
+public class FileNotificationSender implements NotificationSender {
+    private final Path file;
+
+    public FileNotificationSender(Path file) {
+        this.file = file;
+    }
+
+    @Override
+    public void send(List<Notification> batch) throws IOException {
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                 StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            for (Notification notification : batch) {
+                out.write(notification.toJson().toString());
+                out.write('\n');
+            }
+        }
+    }
+}
@@ -2,114 +2,155 @@ package com.flighttracker;
 
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
-import java.io.*;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
-import java.util.UUID;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.json.JSONArray;
+import org.json.JSONObject;
 
+/**
+ * Passenger manifest uploads. Every upload becomes a job that is imported
+ * in the background; the response carries its id straight away.
+ *
+ * <ul>
+ *   <li>{@code POST /api/upload} with the CSV as the body uploads it in one go.
+ *       {@code mode=insert} (the default) only adds new passengers,
+ *       {@code mode=upsert} also updates changed ones and {@code mode=sync}
+ *       additionally removes passengers missing from the manifest.</li>
+ *   <li>{@code POST /api/upload?resumable=true[&size=N][&mode=...]} opens an empty upload,
+ *       {@code PUT /api/upload/{jobId}?offset=N} appends a chunk, and
+ *       {@code POST /api/upload/{jobId}} marks it complete. After a dropped
+ *       connection, {@code GET /api/upload/{jobId}} gives the offset to resume
+ *       from; a chunk sent at the wrong offset gets 409.</li>
+ *   <li>{@code GET /api/upload/{jobId}} reports progress, {@code GET /api/upload}
+ *       lists current jobs and {@code DELETE /api/upload/{jobId}} cancels one.</li>
+ * </ul>
+ */
 public class FileUploadHandler implements HttpHandler {
     private static final Logger LOGGER = Logger.getLogger(FileUploadHandler.class.getName());
-    private final FlightTrackerSimple flightTracker;
-    
-    public FileUploadHandler(FlightTrackerSimple flightTracker) {
-        this.flightTracker = flightTracker;
+    private static final Pattern JOB_PATH = Pattern.compile("/api/upload/([0-9a-f]{32})/?");
+
+    private final UploadJobs uploads;
+
+    public FileUploadHandler(UploadJobs uploads) {
+        this.uploads = uploads;
     }
-    
+
     @Override
     public void handle(HttpExchange exchange) throws IOException {
-        LOGGER.info("Received file upload request: " + exchange.getRequestMethod());
-        
-        // CORS headers
-        exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
-        exchange.getResponseHeaders().add("Access-Control-Allow-Methods", "POST, OPTIONS");
-        exchange.getResponseHeaders().add("Access-Control-Allow-Headers", "Content-Type");
-        
-        if ("OPTIONS".equals(exchange.getRequestMethod())) {
-            exchange.sendResponseHeaders(204, -1);
-            return;
-        }
-        
-        if (!"POST".equals(exchange.getRequestMethod())) {
-            sendResponse(exchange, 405, "{\"success\":false,\"message\":\"Method not allowed\"}");
-            return;
-        }
-        
-        // Log Content-Type header - useful for debugging
-        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
-        LOGGER.info("Content-Type: " + contentType);
-        
-        String tempFilePath = null;
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
+        LOGGER.fine(() -> "Received upload request: " + method + " " + path);
+
         try {
-            // Create temp file
-            tempFilePath = System.getProperty("java.io.tmpdir") + "/upload_" + UUID.randomUUID() + ".csv";
-            LOGGER.info("Saving uploaded CSV to: " + tempFilePath);
-            
-            // Save uploaded file directly from request body
-            // In a simple HttpServer implementation, we don't have multipart parsing
-            // We're assuming the entire body contains the CSV file
-            try (InputStream in = exchange.getRequestBody();
-                 FileOutputStream out = new FileOutputStream(tempFilePath)) {
-                byte[] buffer = new byte[8192];
-                int bytesRead;
-                while ((bytesRead = in.read(buffer)) != -1) {
-                    out.write(buffer, 0, bytesRead);
+            Map<String, String> params = QueryParams.parse(exchange.getRequestURI().getRawQuery());
+            if (path.equals("/api/upload") || path.equals("/api/upload/")) {
+                if ("POST".equals(method)) {
+                    create(exchange, params);
+                } else if ("GET".equals(method)) {
+                    JSONArray jobs = new JSONArray();
+                    uploads.list().forEach(job -> jobs.put(job.toJson()));
+                    sendResponse(exchange, 200, new JSONObject().put("jobs", jobs).toString());
+                } else {
+                    sendError(exchange, 405, "Method not allowed");
                 }
+                return;
             }
-            
-            // Debug: Check if file exists and its size
-            File tempFile = new File(tempFilePath);
-            LOGGER.info("Temp file created: " + tempFile.exists() + ", size: " + tempFile.length() + " bytes");
-            
-            // Debug: Log the content of the uploaded file
-            try (BufferedReader reader = new BufferedReader(new FileReader(tempFilePath))) {
-                LOGGER.info("CSV File Content:");
-                String line;
-                int lineCount = 0;
-                while ((line = reader.readLine()) != null && lineCount < 5) {
-                    LOGGER.info("Line " + lineCount + ": " + line);
-                    lineCount++;
-                }
-            } catch (Exception e) {
-                LOGGER.log(Level.SEVERE, "Error reading uploaded file", e);
-            }
-            
-            // Process CSV with error handling
-            boolean success = false;
-            try {
-                success = flightTracker.processCSV(tempFilePath);
-                if (!success) {
-                    LOGGER.warning("CSV processing failed - returned false");
-                    sendResponse(exchange, 400, "{\"success\":false,\"message\":\"Invalid CSV format - headers may not match expected format\"}");
-                    return;
-                }
-            } catch (Exception e) {
-                LOGGER.log(Level.SEVERE, "CSV Processing Error", e);
-                sendResponse(exchange, 400, "{\"success\":false,\"message\":\"Error processing CSV: " + e.getMessage() + "\"}");
+
+            Matcher matcher = JOB_PATH.matcher(path);
+            UploadJob job = matcher.matches() ? uploads.get(matcher.group(1)) : null;
+            if (job == null) {
+                sendError(exchange, 404, "Upload not found");
                 return;
             }
-            
-            LOGGER.info("CSV processing successful");
-            sendResponse(exchange, 200, "{\"success\":true,\"message\":\"File processed successfully\"}");
-            
+            switch (method) {
+                case "GET":
+                    sendJob(exchange, 200, job);
+                    break;
+                case "PUT":
+                    long offset = QueryParams.getLong(params, "offset", -1);
+                    if (offset < 0) {
+                        throw new IllegalArgumentException("offset is required");
+                    }
+                    uploads.append(job, offset, exchange.getRequestBody());
+                    sendJob(exchange, 200, job);
+                    break;
+                case "POST":
+                    uploads.submit(job);
+                    sendJob(exchange, 202, job);
+                    break;
+                case "DELETE":
+                    if (!uploads.cancel(job)) {
+                        throw new IllegalStateException("Upload is " + job.getState());
+                    }
+                    sendJob(exchange, 200, job);
+                    break;
+                default:
+                    sendError(exchange, 405, "Method not allowed");
+            }
+        } catch (IllegalStateException e) {
+            sendError(exchange, 409, e.getMessage());
+        } catch (IllegalArgumentException e) {
+            String message = String.valueOf(e.getMessage());
+            sendError(exchange, message.startsWith("Upload exceeds") ? 413 : 400, message);
+        } catch (IOException e) {
+            // Usually the client going away mid-chunk; what arrived has been kept
+            LOGGER.fine(() -> "Upload request aborted: " + e);
+            exchange.close();
         } catch (Exception e) {
             LOGGER.log(Level.SEVERE, "Upload Error", e);
-            sendResponse(exchange, 500, "{\"success\":false,\"message\":\"Server error: " + e.getMessage() + "\"}");
-        } finally {
-            // Clean up temp file
-            if (tempFilePath != null) {
-                File tempFile = new File(tempFilePath);
-                if (tempFile.exists()) {
-                    if (tempFile.delete()) {
-                        LOGGER.info("Temporary file deleted successfully");
-                    } else {
-                        LOGGER.warning("Failed to delete temporary file: " + tempFilePath);
-                    }
-                }
+            sendError(exchange, 500, "Server error: " + e.getMessage());
+        }
+    }
+
+    private void create(HttpExchange exchange, Map<String, String> params) throws IOException {
+        UploadJob.Mode mode = parseMode(params.get("mode"));
+        if (Boolean.parseBoolean(params.get("resumable"))) {
+            UploadJob job = uploads.create(QueryParams.getLong(params, "size", -1), mode);
+            sendJob(exchange, 201, job);
+            return;
+        }
+
+        String length = exchange.getRequestHeaders().getFirst("Content-Length");
+        UploadJob job = uploads.create(length != null ? Long.parseLong(length) : -1, mode);
+        try {
+            uploads.append(job, 0, exchange.getRequestBody());
+            uploads.submit(job);
+        } catch (RuntimeException | IOException e) {
+            uploads.cancel(job);
+            throw e;
+        }
+        sendJob(exchange, 202, job);
+    }
+
+    private static UploadJob.Mode parseMode(String value) {
+        if (value == null || value.isEmpty()) {
+            return UploadJob.Mode.INSERT;
+        }
+        for (UploadJob.Mode mode : UploadJob.Mode.values()) {
+            if (mode.name().equalsIgnoreCase(value)) {
+                return mode;
             }
         }
+        throw new IllegalArgumentException("Unknown mode: " + value);
+    }
+
+    private void sendJob(HttpExchange exchange, int statusCode, UploadJob job) throws IOException {
+        JSONObject json = job.toJson();
+        json.put("success", true);
+        exchange.getResponseHeaders().set("Location", "/api/upload/" + job.getId());
+        sendResponse(exchange, statusCode, json.toString());
+    }
+
+    private void sendError(HttpExchange exchange, int statusCode, String message) throws IOException {
+        sendResponse(exchange, statusCode, new JSONObject().put("success", false).put("message", message).toString());
     }
-    
+
     private void sendResponse(HttpExchange exchange, int statusCode, String response) throws IOException {
         exchange.getResponseHeaders().set("Content-Type", "application/json");
         exchange.sendResponseHeaders(statusCode, response.getBytes(StandardCharsets.UTF_8).length);
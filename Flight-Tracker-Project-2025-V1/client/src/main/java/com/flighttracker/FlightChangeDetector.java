@@ -0,0 +1,85 @@
+package com.flighttracker;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compares a lookup with the flight's last known state. Lookups that change
+ * nothing are not persisted or published, and real changes become
+ * {@link FlightEvent}s for the {@link FlightEventBus}.
+ */
+public final class FlightChangeDetector {
+    /**
+     * Distance between two airborne positions, in kilometres, beyond which
+     * the move is reported as a position jump.
+     */
+    static final double JUMP_KM = Double.parseDouble(System.getProperty("flighttracker.events.jumpKm", "500"));
+
+    private FlightChangeDetector() {
+    }
+
+    /**
+     * Whether {@code current} reports exactly what {@code previous} did.
+     *
+     * @param previous the last known state, or null if never polled
+     */
+    public static boolean isUnchanged(FlightData previous, FlightData current) {
+        return previous != null
+            && previous.getStatus().equals(current.getStatus())
+            && Double.compare(previous.getLatitude(), current.getLatitude()) == 0
+            && Double.compare(previous.getLongitude(), current.getLongitude()) == 0
+            && Double.compare(previous.getAltitude(), current.getAltitude()) == 0
+            && Double.compare(previous.getVelocity(), current.getVelocity()) == 0
+            && Double.compare(previous.getHeading(), current.getHeading()) == 0;
+    }
+
+    /**
+     * Returns the events implied by moving from {@code previous} to
+     * {@code current}, usually none.
+     *
+     * @param previous the last known state, or null if never polled
+     */
+    public static List<FlightEvent> detect(FlightKey flight, FlightData previous, FlightData current, Instant now) {
+        String previousStatus = previous != null ? previous.getStatus() : null;
+        String status = current.getStatus().toLowerCase();
+        if (previous == null || !status.equalsIgnoreCase(previousStatus)) {
+            FlightEvent.Type type = statusEvent(previousStatus, status);
+            if (type != null) {
+                return Collections.singletonList(new FlightEvent(type, flight, previousStatus, current, now));
+            }
+            return Collections.emptyList();
+        }
+
+        if (isAirborne(status) && SpatialIndex.distanceKm(previous.getLatitude(), previous.getLongitude(),
+                current.getLatitude(), current.getLongitude()) > JUMP_KM) {
+            return Collections.singletonList(
+                new FlightEvent(FlightEvent.Type.POSITION_JUMP, flight, previousStatus, current, now));
+        }
+        return Collections.emptyList();
+    }
+
+    private static FlightEvent.Type statusEvent(String previousStatus, String status) {
+        switch (status) {
+            case "delayed":
+                return FlightEvent.Type.DELAYED;
+            case "diverted":
+                return FlightEvent.Type.DIVERTED;
+            case "cancelled":
+                return FlightEvent.Type.CANCELLED;
+            case "arrived":
+            case "landed":
+                return FlightEvent.Type.LANDED;
+            case "departed":
+            case "in-air":
+                // in-air after departed is the same leg, not a second departure
+                return isAirborne(previousStatus) ? null : FlightEvent.Type.DEPARTED;
+            default:
+                return null;
+        }
+    }
+
+    private static boolean isAirborne(String status) {
+        return FlightPhase.ofStatus(status) == FlightPhase.AIRBORNE;
+    }
+}
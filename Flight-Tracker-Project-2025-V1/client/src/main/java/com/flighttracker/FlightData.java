@@ -0,0 +1,47 @@
+package com.flighttracker;
+
+/**
+ * Status and position of a flight as returned by a single lookup.
+ */
+public final class FlightData {
+    private final String status;
+    private final double latitude;
+    private final double longitude;
+    private final double altitude;
+    private final double velocity;
+    private final double heading;
+
+    public FlightData(String status, double latitude, double longitude,
+                      double altitude, double velocity, double heading) {
+        this.status = status;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.altitude = altitude;
+        this.velocity = velocity;
+        this.heading = heading;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+
+    public double getAltitude() {
+        return altitude;
+    }
+
+    public double getVelocity() {
+        return velocity;
+    }
+
+    public double getHeading() {
+        return heading;
+    }
+}
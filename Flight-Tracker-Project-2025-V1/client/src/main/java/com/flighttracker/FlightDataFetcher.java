@@ -0,0 +1,13 @@
+package com.flighttracker;
+
+/**
+ * Source of live flight status. Implementations are called concurrently by
+ * {@link FlightUpdateEngine} and must be thread-safe.
+ */
+public interface FlightDataFetcher {
+
+    /**
+     * Looks up the current status and position of a flight.
+     */
+    FlightData fetch(FlightKey flight) throws Exception;
+}
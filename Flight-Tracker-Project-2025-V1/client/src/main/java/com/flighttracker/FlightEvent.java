@@ -0,0 +1,75 @@
+package com.flighttracker;
+
+import java.time.Instant;
+import java.util.Locale;
+import org.json.JSONObject;
+
+/**
+ * A change in a flight's state worth telling its passengers about, found by
+ * {@link FlightChangeDetector} when a lookup differs from the last one.
+ */
+public final class FlightEvent {
+
+    public enum Type {
+        DEPARTED,
+        DELAYED,
+        DIVERTED,
+        CANCELLED,
+        LANDED,
+        /** The reported position moved further than a poll interval allows. */
+        POSITION_JUMP
+    }
+
+    private final Type type;
+    private final FlightKey flight;
+    private final String previousStatus;
+    private final FlightData data;
+    private final Instant detectedAt;
+
+    public FlightEvent(Type type, FlightKey flight, String previousStatus, FlightData data, Instant detectedAt) {
+        this.type = type;
+        this.flight = flight;
+        this.previousStatus = previousStatus;
+        this.data = data;
+        this.detectedAt = detectedAt;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public FlightKey getFlight() {
+        return flight;
+    }
+
+    /** The status before the change, or null if the flight was never polled. */
+    public String getPreviousStatus() {
+        return previousStatus;
+    }
+
+    public FlightData getData() {
+        return data;
+    }
+
+    public Instant getDetectedAt() {
+        return detectedAt;
+    }
+
+    JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        json.put("type", type.name().toLowerCase(Locale.ROOT));
+        json.put("status", data.getStatus());
+        if (previousStatus != null) {
+            json.put("previousStatus", previousStatus);
+        }
+        json.put("latitude", data.getLatitude());
+        json.put("longitude", data.getLongitude());
+        json.put("detectedAt", detectedAt.toString());
+        return json;
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + flight;
+    }
+}
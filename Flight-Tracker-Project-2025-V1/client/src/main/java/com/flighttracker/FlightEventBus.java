@@ -0,0 +1,44 @@
+package com.flighttracker;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * In-process publish/subscribe for {@link FlightEvent}s. Listeners run on
+ * the publishing thread, which is the updater's, so they should only hand
+ * events off; a failing listener is logged and does not affect the others.
+ */
+public class FlightEventBus {
+    private static final Logger LOGGER = Logger.getLogger(FlightEventBus.class.getName());
+
+    private final List<Consumer<FlightEvent>> listeners = new CopyOnWriteArrayList<>();
+    private final Map<FlightEvent.Type, Metrics.Counter> published = new EnumMap<>(FlightEvent.Type.class);
+
+    public FlightEventBus() {
+        for (FlightEvent.Type type : FlightEvent.Type.values()) {
+            published.put(type, Metrics.counter("flighttracker_flight_events_total",
+                "Flight change events published", "type", type.name().toLowerCase(Locale.ROOT)));
+        }
+    }
+
+    public void subscribe(Consumer<FlightEvent> listener) {
+        listeners.add(listener);
+    }
+
+    public void publish(FlightEvent event) {
+        published.get(event.getType()).increment();
+        for (Consumer<FlightEvent> listener : listeners) {
+            try {
+                listener.accept(event);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Flight event listener failed on " + event, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,441 @@
+package com.flighttracker;
+
+import com.sun.net.httpserver.HttpExchange;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Position history stored once per flight in flight_track rather than once
+ * per passenger. Points are kept at full resolution for
+ * {@code flighttracker.history.rawDays}, then thinned to one point per
+ * {@link #DOWNSAMPLED_RESOLUTION} seconds, and dropped entirely after
+ * {@code flighttracker.history.retentionDays}.
+ *
+ * <p>Compaction runs in the background in small time windows, each in its
+ * own short write transaction, so it never holds the writer for long and
+ * (with WAL) never blocks readers. Deleted pages are reused by new points,
+ * so the database file stops growing once retention is reached.
+ */
+public class FlightHistoryStore {
+    private static final Logger LOGGER = Logger.getLogger(FlightHistoryStore.class.getName());
+
+    static final int RAW_RESOLUTION = 0;
+    static final int DOWNSAMPLED_RESOLUTION = 300;
+    private static final int RAW_DAYS = Integer.getInteger("flighttracker.history.rawDays", 7);
+    private static final int RETENTION_DAYS = Integer.getInteger("flighttracker.history.retentionDays", 90);
+    private static final int COMPACTION_INTERVAL_SECONDS = 60;
+    private static final long COMPACTION_WINDOW_SECONDS = TimeUnit.HOURS.toSeconds(1);
+    private static final int COMPACTION_WINDOWS_PER_RUN = 24;
+    private static final int DELETE_BATCH = 5000;
+    private static final int MAX_TRACK_POINTS = 10000;
+    private static final Metrics.Histogram COMPACTION_DURATION = Metrics.histogram(
+        "flighttracker_history_compaction_seconds", "Duration of history compaction rounds");
+    private static final Metrics.Counter COMPACTED_ROWS = Metrics.counter("flighttracker_history_rows_removed_total",
+        "Track points and legacy status rows removed by compaction");
+
+    private final Database database;
+    private final Map<FlightKey, Integer> flightIds = new ConcurrentHashMap<>();
+    /**
+     * Ids looked up or created in the writer's open transaction. A rollback
+     * undoes new flights rows and hands their ids out again, so they only
+     * join {@link #flightIds} once the transaction commits.
+     */
+    private final Map<FlightKey, Integer> uncommittedIds = new ConcurrentHashMap<>();
+
+    public FlightHistoryStore(Database database) {
+        this.database = database;
+    }
+
+    /**
+     * Starts periodic background compaction.
+     */
+    public void start() {
+        start(() -> true);
+    }
+
+    /**
+     * Starts periodic background compaction, skipping rounds while
+     * {@code active} is false, e.g. on instances that share the database
+     * with the one doing the compaction.
+     */
+    public void start(BooleanSupplier active) {
+        ScheduledExecutorService compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "history-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        compactor.scheduleWithFixedDelay(() -> {
+            if (active.getAsBoolean()) {
+                compactQuietly();
+            }
+        },
+            COMPACTION_INTERVAL_SECONDS, COMPACTION_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Returns the id of the flight's row in the flights table, creating it on
+     * first use. Must be called with the writer; ids it creates are cached
+     * only after {@link #committed}.
+     */
+    public int flightId(Database.Handle db, FlightKey flight) throws SQLException {
+        Integer cached = flightIds.get(flight);
+        if (cached == null) {
+            cached = uncommittedIds.get(flight);
+        }
+        if (cached != null) {
+            return cached;
+        }
+        PreparedStatement insert = db.prepare(
+            "INSERT OR IGNORE INTO flights (airline, flight_number, departure_date) VALUES (?, ?, ?)");
+        insert.setString(1, flight.getAirline());
+        insert.setString(2, flight.getFlightNumber());
+        insert.setString(3, flight.getDepartureDate());
+        insert.executeUpdate();
+
+        PreparedStatement select = db.prepare(
+            "SELECT id FROM flights WHERE airline = ? AND flight_number = ? AND departure_date = ?");
+        select.setString(1, flight.getAirline());
+        select.setString(2, flight.getFlightNumber());
+        select.setString(3, flight.getDepartureDate());
+        try (ResultSet rs = select.executeQuery()) {
+            rs.next();
+            int id = rs.getInt(1);
+            uncommittedIds.put(flight, id);
+            return id;
+        }
+    }
+
+    /**
+     * Caches the ids used by the writer transaction that just committed.
+     */
+    public void committed() {
+        flightIds.putAll(uncommittedIds);
+        uncommittedIds.clear();
+    }
+
+    /**
+     * Forgets the ids used by a writer transaction that rolled back or
+     * failed, since their flights rows may no longer exist.
+     */
+    public void rolledBack() {
+        uncommittedIds.clear();
+    }
+
+    /**
+     * Appends a full-resolution point for the flight. Must be called with the
+     * writer, normally inside the transaction that updates current status.
+     */
+    public void record(Database.Handle db, FlightKey flight, long epochSeconds, FlightData data) throws SQLException {
+        PreparedStatement insert = db.prepare(
+            "INSERT OR REPLACE INTO flight_track " +
+            "(flight_id, resolution, ts, status, latitude, longitude, altitude, velocity, heading) " +
+            "VALUES (?, " + RAW_RESOLUTION + ", ?, ?, ?, ?, ?, ?, ?)");
+        insert.setInt(1, flightId(db, flight));
+        insert.setLong(2, epochSeconds);
+        insert.setString(3, data.getStatus());
+        insert.setDouble(4, data.getLatitude());
+        insert.setDouble(5, data.getLongitude());
+        insert.setDouble(6, data.getAltitude());
+        insert.setDouble(7, data.getVelocity());
+        insert.setDouble(8, data.getHeading());
+        insert.executeUpdate();
+    }
+
+    /**
+     * Passes every full-resolution point recorded at or after
+     * {@code sinceSeconds} to {@code sink}, oldest first, so that an instance
+     * can follow flights polled by another one.
+     *
+     * @return the timestamp of the newest point read, or {@code sinceSeconds}
+     *         if there were none
+     */
+    public long readRecent(long sinceSeconds, PointSink sink) throws SQLException {
+        long newest = sinceSeconds;
+        try (Database.Handle db = database.reader()) {
+            PreparedStatement points = db.prepare(
+                "SELECT f.airline, f.flight_number, f.departure_date, t.ts, t.status, " +
+                "t.latitude, t.longitude, t.altitude, t.velocity, t.heading " +
+                "FROM flight_track t JOIN flights f ON f.id = t.flight_id " +
+                "WHERE t.resolution = " + RAW_RESOLUTION + " AND t.ts >= ? ORDER BY t.ts");
+            points.setLong(1, sinceSeconds);
+            try (ResultSet rs = points.executeQuery()) {
+                while (rs.next()) {
+                    FlightKey flight = new FlightKey(rs.getString(1), rs.getString(2), rs.getString(3));
+                    long ts = rs.getLong(4);
+                    newest = Math.max(newest, ts);
+                    sink.accept(flight, ts, new FlightData(rs.getString(5), rs.getDouble(6), rs.getDouble(7),
+                        rs.getDouble(8), rs.getDouble(9), rs.getDouble(10)));
+                }
+            }
+        }
+        return newest;
+    }
+
+    private void compactQuietly() {
+        long start = System.nanoTime();
+        try {
+            compact(Instant.now().getEpochSecond());
+            COMPACTION_DURATION.recordSince(start);
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "History compaction failed", e);
+        }
+    }
+
+    /**
+     * Runs one bounded round of compaction: downsamples raw points older than
+     * the raw window, then expires points and legacy flight_status rows older
+     * than the retention period.
+     */
+    public void compact(long nowSeconds) throws SQLException {
+        long rawCutoff = align(nowSeconds - TimeUnit.DAYS.toSeconds(RAW_DAYS));
+        long retentionCutoff = nowSeconds - TimeUnit.DAYS.toSeconds(RETENTION_DAYS);
+
+        int windows = 0;
+        while (windows < COMPACTION_WINDOWS_PER_RUN && downsampleOldestWindow(rawCutoff)) {
+            windows++;
+        }
+
+        int expired = deleteBatch(
+            "DELETE FROM flight_track WHERE (flight_id, resolution, ts) IN (" +
+            "SELECT flight_id, resolution, ts FROM flight_track WHERE resolution = " + DOWNSAMPLED_RESOLUTION +
+            " AND ts < ? LIMIT " + DELETE_BATCH + ")", retentionCutoff);
+        // flight_status is no longer appended to; its pre-existing history
+        // ages out on the raw schedule. Rows are scanned oldest first, so the
+        // LIMIT stops the scan as soon as the batch is full. Older rows hold
+        // CURRENT_TIMESTAMP text rather than ISO-8601, so both sides are
+        // normalized by datetime() instead of being compared as strings.
+        int legacy = deleteBatch(
+            "DELETE FROM flight_status WHERE id IN (" +
+            "SELECT id FROM flight_status WHERE datetime(last_update) < datetime(?, 'unixepoch') " +
+            "ORDER BY id LIMIT " + DELETE_BATCH + ")",
+            rawCutoff);
+
+        COMPACTED_ROWS.add(expired + legacy);
+        if (windows > 0 || expired > 0 || legacy > 0) {
+            LOGGER.info("History compaction: downsampled " + windows + " hour(s), expired " + expired
+                + " track points, pruned " + legacy + " legacy status rows");
+        }
+    }
+
+    /**
+     * Replaces the raw points in the oldest hour before the cutoff with the
+     * last point of each downsampled bucket. Returns false when there is
+     * nothing left to downsample.
+     */
+    private boolean downsampleOldestWindow(long rawCutoff) throws SQLException {
+        try (Database.Handle db = database.writer()) {
+            long start;
+            PreparedStatement oldest = db.prepare(
+                "SELECT MIN(ts) FROM flight_track WHERE resolution = " + RAW_RESOLUTION + " AND ts < ?");
+            oldest.setLong(1, rawCutoff);
+            try (ResultSet rs = oldest.executeQuery()) {
+                if (!rs.next() || rs.getObject(1) == null) {
+                    return false;
+                }
+                start = align(rs.getLong(1));
+            }
+            long end = Math.min(start + COMPACTION_WINDOW_SECONDS, rawCutoff);
+
+            // Bare columns next to MAX(ts) come from the row holding the
+            // maximum, i.e. the last point in each bucket
+            PreparedStatement downsample = db.prepare(
+                "INSERT OR REPLACE INTO flight_track " +
+                "(flight_id, resolution, ts, status, latitude, longitude, altitude, velocity, heading) " +
+                "SELECT flight_id, " + DOWNSAMPLED_RESOLUTION + ", bucket, status, latitude, longitude, altitude, velocity, heading " +
+                "FROM (SELECT flight_id, (ts / " + DOWNSAMPLED_RESOLUTION + ") * " + DOWNSAMPLED_RESOLUTION + " AS bucket, " +
+                "MAX(ts), status, latitude, longitude, altitude, velocity, heading " +
+                "FROM flight_track WHERE resolution = " + RAW_RESOLUTION + " AND ts >= ? AND ts < ? " +
+                "GROUP BY flight_id, bucket)");
+            PreparedStatement delete = db.prepare(
+                "DELETE FROM flight_track WHERE resolution = " + RAW_RESOLUTION + " AND ts >= ? AND ts < ?");
+            db.inTransaction(() -> {
+                downsample.setLong(1, start);
+                downsample.setLong(2, end);
+                downsample.executeUpdate();
+                delete.setLong(1, start);
+                delete.setLong(2, end);
+                delete.executeUpdate();
+            });
+            return true;
+        }
+    }
+
+    private int deleteBatch(String sql, Object cutoff) throws SQLException {
+        try (Database.Handle db = database.writer()) {
+            PreparedStatement delete = db.prepare(sql);
+            delete.setObject(1, cutoff);
+            return delete.executeUpdate();
+        }
+    }
+
+    private static long align(long epochSeconds) {
+        return Math.floorDiv(epochSeconds, DOWNSAMPLED_RESOLUTION) * DOWNSAMPLED_RESOLUTION;
+    }
+
+    /**
+     * Answers GET /api/flights/{id}/track, where {id} is a passenger id as
+     * returned by /api/flights. {@code from} and {@code to} accept ISO-8601
+     * instants or epoch seconds and default to the last 24 hours;
+     * {@code resolution} (seconds) thins the track to at most one point per
+     * interval.
+     */
+    public void sendTrack(HttpExchange exchange, int passengerId, Map<String, String> params) throws IOException {
+        long now = Instant.now().getEpochSecond();
+        long from;
+        long to;
+        int resolution;
+        try {
+            to = parseTime(params.get("to"), now);
+            from = parseTime(params.get("from"), to - TimeUnit.DAYS.toSeconds(1));
+            resolution = QueryParams.getInt(params, "resolution", RAW_RESOLUTION);
+            if (resolution < 0 || from > to) {
+                throw new IllegalArgumentException("Invalid time range or resolution");
+            }
+        } catch (IllegalArgumentException e) {
+            sendJson(exchange, 400, "{\"error\":" + org.json.JSONObject.quote(e.getMessage()) + "}");
+            return;
+        }
+
+        try (Database.Handle db = database.reader()) {
+            PreparedStatement flight = db.prepare(
+                "SELECT f.id, f.airline, f.flight_number, f.departure_date FROM passengers p " +
+                "JOIN flights f ON f.airline = p.airline AND f.flight_number = p.flight_number " +
+                "AND f.departure_date = p.departure_date WHERE p.id = ?");
+            flight.setInt(1, passengerId);
+            try (ResultSet header = flight.executeQuery()) {
+                if (!header.next()) {
+                    sendJson(exchange, 404, "{\"error\":\"No track for passenger " + passengerId + "\"}");
+                    return;
+                }
+
+                PreparedStatement points = db.prepare(
+                    "SELECT ts, status, latitude, longitude, altitude, velocity, heading FROM flight_track " +
+                    "WHERE flight_id = ? AND ts >= ? AND ts <= ? ORDER BY ts");
+                points.setInt(1, header.getInt("id"));
+                points.setLong(2, from);
+                points.setLong(3, to);
+                try (ResultSet rs = points.executeQuery()) {
+                    exchange.getResponseHeaders().set("Content-Type", "application/json");
+                    exchange.sendResponseHeaders(200, 0);
+                    try (JsonStreamWriter json = new JsonStreamWriter(exchange.getResponseBody())) {
+                        json.beginObject();
+                        json.name("id").value(passengerId);
+                        json.name("airline").value(header.getString("airline"));
+                        json.name("flightNumber").value(header.getString("flight_number"));
+                        json.name("departureDate").value(header.getString("departure_date"));
+                        json.name("resolution").value(resolution);
+                        json.name("points").beginArray();
+                        writePoints(rs, json, resolution);
+                        json.endArray();
+                        json.endObject();
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new IOException("Error reading track for passenger " + passengerId, e);
+        }
+    }
+
+    /**
+     * Writes points in time order, keeping only the last point of each
+     * {@code resolution}-second bucket when a resolution is given.
+     */
+    private static void writePoints(ResultSet rs, JsonStreamWriter json, int resolution) throws SQLException, IOException {
+        boolean pending = false;
+        long pendingBucket = 0;
+        TrackPoint point = new TrackPoint();
+        int written = 0;
+        while (rs.next() && written < MAX_TRACK_POINTS) {
+            long ts = rs.getLong("ts");
+            long bucket = resolution > 0 ? Math.floorDiv(ts, resolution) : ts;
+            if (pending && bucket != pendingBucket) {
+                point.write(json);
+                written++;
+            }
+            point.read(rs, ts);
+            pending = true;
+            pendingBucket = bucket;
+        }
+        if (pending && written < MAX_TRACK_POINTS) {
+            point.write(json);
+        }
+    }
+
+    private static long parseTime(String value, long defaultValue) {
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            try {
+                return Instant.parse(value).getEpochSecond();
+            } catch (DateTimeParseException e2) {
+                throw new IllegalArgumentException("Invalid time: " + value);
+            }
+        }
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+
+    /**
+     * Reusable holder for the most recent row of a bucket.
+     */
+    private static final class TrackPoint {
+        long ts;
+        String status;
+        double latitude;
+        double longitude;
+        double altitude;
+        double velocity;
+        double heading;
+
+        void read(ResultSet rs, long ts) throws SQLException {
+            this.ts = ts;
+            status = rs.getString("status");
+            latitude = rs.getDouble("latitude");
+            longitude = rs.getDouble("longitude");
+            altitude = rs.getDouble("altitude");
+            velocity = rs.getDouble("velocity");
+            heading = rs.getDouble("heading");
+        }
+
+        void write(JsonStreamWriter json) throws IOException {
+            json.beginObject();
+            json.name("timestamp").value(ts);
+            json.name("status").value(status);
+            json.name("latitude").value(latitude);
+            json.name("longitude").value(longitude);
+            json.name("altitude").value(altitude);
+            json.name("velocity").value(velocity);
+            json.name("heading").value(heading);
+            json.endObject();
+        }
+    }
+
+    /** Receives track points from {@link #readRecent}. */
+    public interface PointSink {
+        void accept(FlightKey flight, long epochSeconds, FlightData data);
+    }
+}
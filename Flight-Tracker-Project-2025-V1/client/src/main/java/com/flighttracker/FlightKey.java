@@ -0,0 +1,58 @@
+package com.flighttracker;
+
+import java.util.Objects;
+
+/**
+ * Identifies a single flight: every passenger booked on the same airline,
+ * flight number and departure date shares one FlightKey.
+ */
+public final class FlightKey {
+    private final String airline;
+    private final String flightNumber;
+    private final String departureDate;
+
+    public FlightKey(String airline, String flightNumber, String departureDate) {
+        this.airline = airline;
+        this.flightNumber = flightNumber;
+        this.departureDate = departureDate;
+    }
+
+    public String getAirline() {
+        return airline;
+    }
+
+    public String getFlightNumber() {
+        return flightNumber;
+    }
+
+    public String getDepartureDate() {
+        return departureDate;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof FlightKey)) {
+            return false;
+        }
+        FlightKey other = (FlightKey) o;
+        return airline.equals(other.airline)
+            && flightNumber.equals(other.flightNumber)
+            && departureDate.equals(other.departureDate);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(airline, flightNumber, departureDate);
+    }
+
+    /**
+     * Flight designator as used in log lines, e.g. "UA354".
+     */
+    @Override
+    public String toString() {
+        return airline + flightNumber;
+    }
+}
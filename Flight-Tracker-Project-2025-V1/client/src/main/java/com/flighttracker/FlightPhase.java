@@ -0,0 +1,87 @@
+package com.flighttracker;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coarse stage of a flight's life, used to decide how often it is polled.
+ * Finished phases are never polled again.
+ */
+public enum FlightPhase {
+    SCHEDULED(TimeUnit.HOURS.toMillis(3)),
+    BOARDING(TimeUnit.MINUTES.toMillis(10)),
+    AIRBORNE(TimeUnit.MINUTES.toMillis(2)),
+    LANDED(-1),
+    CANCELLED(-1);
+
+    private final long pollIntervalMillis;
+
+    FlightPhase(long pollIntervalMillis) {
+        this.pollIntervalMillis = pollIntervalMillis;
+    }
+
+    public long getPollIntervalMillis() {
+        return pollIntervalMillis;
+    }
+
+    public boolean isFinished() {
+        return pollIntervalMillis < 0;
+    }
+
+    /**
+     * Derives the phase from the last known flight_status.status (which may be
+     * null if the flight was never polled) and passengers.departure_date.
+     * A flight still unfinished more than a day after its departure date is
+     * taken as landed, so a last status stuck at "in-air" is not polled forever.
+     */
+    public static FlightPhase derive(String status, String departureDate, LocalDate today) {
+        FlightPhase reported = ofStatus(status);
+        if (reported != null && reported.isFinished()) {
+            return reported;
+        }
+
+        LocalDate departure;
+        try {
+            departure = LocalDate.parse(departureDate);
+        } catch (DateTimeParseException | NullPointerException e) {
+            return reported != null ? reported : SCHEDULED;
+        }
+        // Allow a day of slack for overnight flights and time zones before
+        // treating a flight that never finished as over.
+        if (departure.isBefore(today.minusDays(1))) {
+            return LANDED;
+        }
+        if (reported != null) {
+            return reported;
+        }
+        if (departure.isAfter(today)) {
+            return SCHEDULED;
+        }
+        return BOARDING;
+    }
+
+    /**
+     * The phase a status names outright, or null for statuses such as
+     * "scheduled" or "unknown" that need the departure date to interpret.
+     */
+    public static FlightPhase ofStatus(String status) {
+        if (status == null) {
+            return null;
+        }
+        switch (status.toLowerCase()) {
+            case "cancelled":
+                return CANCELLED;
+            case "arrived":
+            case "landed":
+                return LANDED;
+            case "departed":
+            case "in-air":
+                return AIRBORNE;
+            case "boarding":
+                return BOARDING;
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.flighttracker;
+
+import com.sun.net.httpserver.HttpExchange;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONObject;
+
+/**
+ * Filtered, paginated and projected view of /api/flights, answered from the
+ * {@link FlightStateStore}. Filters are matched against interned codes and
+ * pages are cut with a keyset cursor on the passenger id, so each request
+ * copies at most one page of rows however many passengers are tracked.
+ *
+ * <p>Supported parameters: airline, flightNumber, departureAirport,
+ * arrivalAirport, status, departureFrom, departureTo (inclusive dates),
+ * cursor, limit and fields (comma separated).
+ */
+public class FlightQuery {
+    static final int DEFAULT_LIMIT = 100;
+    static final int MAX_LIMIT = 1000;
+
+    /** Output field names in default output order. */
+    private static final List<String> FIELDS = Arrays.asList(
+        "id", "passengerName", "airline", "flightNumber", "departureAirport", "arrivalAirport",
+        "departureDate", "status", "latitude", "longitude", "altitude", "velocity", "heading");
+
+    private final List<String> fields;
+    private final FlightStateStore.Filter filter = new FlightStateStore.Filter();
+    private final int cursor;
+    private final int limit;
+
+    private FlightQuery(Map<String, String> params) {
+        fields = parseFields(params.get("fields"));
+        limit = Math.min(MAX_LIMIT, QueryParams.getInt(params, "limit", DEFAULT_LIMIT));
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+
+        filter.airline = value(params, "airline");
+        filter.flightNumber = value(params, "flightNumber");
+        filter.departureAirport = value(params, "departureAirport");
+        filter.arrivalAirport = value(params, "arrivalAirport");
+        filter.status = value(params, "status");
+        filter.departureFrom = value(params, "departureFrom");
+        filter.departureTo = value(params, "departureTo");
+        cursor = QueryParams.getInt(params, "cursor", 0);
+    }
+
+    /**
+     * Builds a query from request parameters.
+     *
+     * @throws IllegalArgumentException for unknown fields or malformed numbers
+     */
+    public static FlightQuery parse(Map<String, String> params) {
+        return new FlightQuery(params);
+    }
+
+    private static String value(Map<String, String> params, String name) {
+        String value = params.get(name);
+        return value == null || value.isEmpty() ? null : value;
+    }
+
+    private static List<String> parseFields(String value) {
+        if (value == null || value.isEmpty()) {
+            return FIELDS;
+        }
+        List<String> selected = new ArrayList<>();
+        selected.add("id");
+        for (String field : value.split(",")) {
+            String name = field.trim();
+            if (!FIELDS.contains(name)) {
+                throw new IllegalArgumentException("Unknown field: " + name);
+            }
+            if (!selected.contains(name)) {
+                selected.add(name);
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Runs the query and writes {"flights":[...],"nextCursor":...} to the
+     * stream, where nextCursor is null on the last page.
+     */
+    public void write(FlightStateStore store, OutputStream out) throws IOException {
+        try (JsonStreamWriter json = new JsonStreamWriter(out)) {
+            writePage(store, json);
+        }
+    }
+
+    /**
+     * Copies one page of matches, plus one extra to tell whether another page
+     * follows, then writes them out, so the store is never locked while the
+     * client is being written to.
+     */
+    void writePage(FlightStateStore store, JsonStreamWriter json) throws IOException {
+        FlightStateStore.Row[] matches = new FlightStateStore.Row[limit + 1];
+        int found = store.find(filter, cursor, matches);
+
+        json.beginObject().name("flights").beginArray();
+        int rows = Math.min(found, limit);
+        for (int i = 0; i < rows; i++) {
+            writeRow(matches[i], json);
+        }
+        String nextCursor = found > limit ? Integer.toString(matches[rows - 1].id) : null;
+        json.endArray().name("nextCursor").value(nextCursor).endObject();
+    }
+
+    private void writeRow(FlightStateStore.Row row, JsonStreamWriter json) throws IOException {
+        json.beginObject();
+        for (String field : fields) {
+            switch (field) {
+                case "id": json.name(field).value(row.id); break;
+                case "passengerName": json.name(field).value(row.passengerName); break;
+                case "airline": json.name(field).value(row.airline); break;
+                case "flightNumber": json.name(field).value(row.flightNumber); break;
+                case "departureAirport": json.name(field).value(row.departureAirport); break;
+                case "arrivalAirport": json.name(field).value(row.arrivalAirport); break;
+                case "departureDate": json.name(field).value(row.departureDate); break;
+                case "status": json.name(field).value(row.status != null ? row.status : "unknown"); break;
+                default: writePosition(field, row, json); break;
+            }
+        }
+        json.endObject();
+    }
+
+    /**
+     * Position fields are only present once the flight has been polled.
+     */
+    private static void writePosition(String field, FlightStateStore.Row row, JsonStreamWriter json) throws IOException {
+        if (row.status == null) {
+            return;
+        }
+        switch (field) {
+            case "latitude": json.name(field).value(row.latitude); break;
+            case "longitude": json.name(field).value(row.longitude); break;
+            case "altitude": json.name(field).value(row.altitude); break;
+            case "velocity": json.name(field).value(row.velocity); break;
+            default: json.name(field).value(row.heading); break;
+        }
+    }
+
+    /**
+     * Answers a GET with query parameters: 400 if the parameters are invalid,
+     * otherwise a chunked 200 built from the state store.
+     */
+    public static void send(HttpExchange exchange, FlightStateStore store, Map<String, String> params) throws IOException {
+        FlightQuery query;
+        try {
+            query = parse(params);
+        } catch (IllegalArgumentException e) {
+            byte[] error = ("{\"error\":" + JSONObject.quote(e.getMessage()) + "}").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(400, error.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(error);
+            }
+            return;
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, 0);
+        query.write(store, exchange.getResponseBody());
+    }
+}
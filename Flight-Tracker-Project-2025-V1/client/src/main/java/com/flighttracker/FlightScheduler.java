@@ -0,0 +1,263 @@
+package com.flighttracker;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Per-flight polling schedule. Each tracked flight is queued by the time its
+ * next lookup is due, with the interval chosen from its {@link FlightPhase}.
+ * Flights in a finished phase are dropped from the queue and stay known only
+ * so that a later sync does not schedule them again.
+ */
+public class FlightScheduler {
+    private static final long RETRY_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    /** Longest that flights overdue after a restart are spread over. */
+    private static final long RESUME_SPREAD_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private enum State { QUEUED, POLLING, FINISHED }
+
+    private static final class Entry {
+        final FlightKey flight;
+        FlightPhase phase;
+        State state;
+        long dueAt;
+        boolean removed;
+
+        Entry(FlightKey flight, FlightPhase phase) {
+            this.flight = flight;
+            this.phase = phase;
+        }
+    }
+
+    private final Map<FlightKey, Entry> entries = new HashMap<>();
+    private final PriorityQueue<Entry> queue =
+        new PriorityQueue<>((a, b) -> Long.compare(a.dueAt, b.dueAt));
+
+    /**
+     * Reconciles the schedule with the currently tracked flights. New flights
+     * are due immediately unless their last known status already marks them
+     * finished; flights no longer tracked are dropped.
+     *
+     * @param lastStatuses last known status per flight, null if never polled
+     */
+    public synchronized void sync(Map<FlightKey, String> lastStatuses, long now) {
+        LocalDate today = LocalDate.now();
+
+        Iterator<Map.Entry<FlightKey, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<FlightKey, Entry> known = it.next();
+            if (!lastStatuses.containsKey(known.getKey())) {
+                known.getValue().removed = true;
+                it.remove();
+            }
+        }
+
+        for (Map.Entry<FlightKey, String> tracked : lastStatuses.entrySet()) {
+            FlightKey flight = tracked.getKey();
+            if (entries.containsKey(flight)) {
+                continue;
+            }
+            Entry entry = new Entry(flight, FlightPhase.derive(tracked.getValue(), flight.getDepartureDate(), today));
+            entries.put(flight, entry);
+            if (entry.phase.isFinished()) {
+                entry.state = State.FINISHED;
+            } else {
+                enqueue(entry, now);
+            }
+        }
+    }
+
+    /**
+     * Removes and returns up to {@code max} flights whose lookup is due. The
+     * caller must report each of them back through {@link #completed} or
+     * {@link #failed}.
+     */
+    public synchronized List<FlightKey> pollDue(long now, int max) {
+        return pollDue(now, max, flight -> true, now);
+    }
+
+    /**
+     * As {@link #pollDue(long, int)}, but only for flights that
+     * {@code accept} allows; due flights it rejects, such as ones polled by
+     * another instance, are checked again at {@code recheckAt}.
+     */
+    public synchronized List<FlightKey> pollDue(long now, int max, Predicate<FlightKey> accept, long recheckAt) {
+        List<FlightKey> due = new ArrayList<>();
+        List<Entry> deferred = new ArrayList<>();
+        while (due.size() < max && !queue.isEmpty() && queue.peek().dueAt <= now) {
+            Entry entry = queue.poll();
+            if (entry.removed || entry.state != State.QUEUED) {
+                continue;
+            }
+            if (!accept.test(entry.flight)) {
+                deferred.add(entry);
+                continue;
+            }
+            entry.state = State.POLLING;
+            due.add(entry.flight);
+        }
+        for (Entry entry : deferred) {
+            enqueue(entry, recheckAt);
+        }
+        return due;
+    }
+
+    /**
+     * Returns every flight that is still being polled, regardless of when it
+     * is due, and marks them as in progress.
+     */
+    public synchronized List<FlightKey> pollAll() {
+        List<FlightKey> all = new ArrayList<>();
+        for (Entry entry : queue) {
+            if (!entry.removed && entry.state == State.QUEUED) {
+                entry.state = State.POLLING;
+                all.add(entry.flight);
+            }
+        }
+        queue.clear();
+        return all;
+    }
+
+    /**
+     * Records a successful lookup and schedules the next one for the phase
+     * implied by the new status.
+     */
+    public synchronized void completed(FlightKey flight, String status, long now) {
+        Entry entry = entries.get(flight);
+        if (entry == null || entry.state != State.POLLING) {
+            return;
+        }
+        entry.phase = FlightPhase.derive(status, flight.getDepartureDate(), LocalDate.now());
+        if (entry.phase.isFinished()) {
+            entry.state = State.FINISHED;
+        } else {
+            enqueue(entry, now + entry.phase.getPollIntervalMillis());
+        }
+    }
+
+    /**
+     * Records a status that another instance looked up, so that a flight
+     * it has finished is not polled again if its shard moves here.
+     */
+    public synchronized void observed(FlightKey flight, String status) {
+        Entry entry = entries.get(flight);
+        if (entry == null || entry.state != State.QUEUED) {
+            return;
+        }
+        // Only the phase changes; the queue position is left alone
+        entry.phase = FlightPhase.derive(status, flight.getDepartureDate(), LocalDate.now());
+        if (entry.phase.isFinished()) {
+            entry.state = State.FINISHED;
+        }
+    }
+
+    /**
+     * Requeues flights from a poll whose lookup failed or timed out, retrying
+     * sooner than their normal interval. Flights that were already reported
+     * through {@link #completed} are ignored, so the whole polled batch can be
+     * passed in.
+     */
+    public synchronized void failed(Collection<FlightKey> flights, long now) {
+        for (FlightKey flight : flights) {
+            Entry entry = entries.get(flight);
+            if (entry != null && entry.state == State.POLLING) {
+                enqueue(entry, now + Math.min(RETRY_INTERVAL_MILLIS, entry.phase.getPollIntervalMillis()));
+            }
+        }
+    }
+
+    public synchronized int getQueuedCount() {
+        int count = 0;
+        for (Entry entry : entries.values()) {
+            if (entry.state == State.QUEUED) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public synchronized int getTrackedCount() {
+        return entries.size();
+    }
+
+    /**
+     * Writes every known flight with its phase and next due time for
+     * {@link StateSnapshot}. Flights being polled are saved as due now.
+     */
+    void writeSnapshot(StateSnapshot.Output out) throws IOException {
+        List<Entry> saved;
+        long[] dueAt;
+        synchronized (this) {
+            saved = new ArrayList<>(entries.values());
+            dueAt = new long[saved.size()];
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < dueAt.length; i++) {
+                Entry entry = saved.get(i);
+                dueAt[i] = entry.state == State.FINISHED ? -1 : entry.state == State.POLLING ? now : entry.dueAt;
+            }
+        }
+        out.putInt(saved.size());
+        for (int i = 0; i < dueAt.length; i++) {
+            FlightKey flight = saved.get(i).flight;
+            out.putString(flight.getAirline());
+            out.putString(flight.getFlightNumber());
+            out.putString(flight.getDepartureDate());
+            out.putInt(saved.get(i).phase.ordinal());
+            out.putLong(dueAt[i]);
+        }
+    }
+
+    /**
+     * Reads what {@link #writeSnapshot} wrote. The returned action replaces
+     * the schedule, keeping each flight's due time so polling resumes where
+     * it left off; flights that fell due while the tracker was down are
+     * spread over the next few minutes instead of all being polled at once.
+     */
+    Runnable readSnapshot(ByteBuffer in, long now) {
+        int count = in.getInt();
+        List<Entry> loaded = new ArrayList<>(count);
+        long[] dueAt = new long[count];
+        FlightPhase[] phases = FlightPhase.values();
+        for (int i = 0; i < count; i++) {
+            FlightKey flight = new FlightKey(
+                StateSnapshot.getString(in), StateSnapshot.getString(in), StateSnapshot.getString(in));
+            loaded.add(new Entry(flight, phases[in.getInt()]));
+            dueAt[i] = in.getLong();
+        }
+
+        return () -> {
+            synchronized (this) {
+                entries.clear();
+                queue.clear();
+                for (int i = 0; i < count; i++) {
+                    Entry entry = loaded.get(i);
+                    entries.put(entry.flight, entry);
+                    if (dueAt[i] < 0) {
+                        entry.state = State.FINISHED;
+                    } else if (dueAt[i] > now) {
+                        enqueue(entry, dueAt[i]);
+                    } else {
+                        long spread = Math.min(RESUME_SPREAD_MILLIS, entry.phase.getPollIntervalMillis());
+                        enqueue(entry, now + Math.floorMod(entry.flight.hashCode(), spread));
+                    }
+                }
+            }
+        };
+    }
+
+    private void enqueue(Entry entry, long dueAt) {
+        entry.state = State.QUEUED;
+        entry.dueAt = dueAt;
+        queue.add(entry);
+    }
+}
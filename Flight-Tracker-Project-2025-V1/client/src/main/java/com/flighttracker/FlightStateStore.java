@@ -0,0 +1,599 @@
+package com.flighttracker;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory model of every tracked passenger and flight, laid out as
+ * parallel primitive arrays (struct of arrays) rather than one object per
+ * row. Repeated strings such as airline codes, airports, dates and statuses
+ * are interned into a code table and stored as ints, so a flight costs about
+ * 60 bytes and a passenger about 20 plus its name.
+ *
+ * <p>The updater writes positions here first and SQLite remains the durable
+ * copy: {@link #sync} loads passengers appended to the database since the
+ * last call, or reloads everything if rows were removed or manifest_version
+ * shows that rows were changed in place, by this or another process.
+ * Readers never touch the database. Flight slots and passenger indexes are stable until a
+ * reload; passengers are kept in ascending id order.
+ */
+public class FlightStateStore {
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final Metrics.Histogram SYNC_QUERY = Metrics.histogram("flighttracker_db_query_seconds",
+        "Duration of read queries", "query", "state_sync");
+    private static final int NO_STATUS = -1;
+    /** Filter code for a criterion that is not set. */
+    private static final int ANY = -1;
+    /** Filter code for a value that appears nowhere in the store. */
+    private static final int ABSENT = -2;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Map<String, Integer> codeIndex = new HashMap<>();
+    private String[] codes = new String[INITIAL_CAPACITY];
+    private int codeCount;
+
+    private final Map<FlightKey, Integer> flightSlots = new HashMap<>();
+    private FlightKey[] flightKeys = new FlightKey[INITIAL_CAPACITY];
+    private int[] flightAirline = new int[INITIAL_CAPACITY];
+    private int[] flightNumber = new int[INITIAL_CAPACITY];
+    private int[] flightDate = new int[INITIAL_CAPACITY];
+    private int[] flightStatus = new int[INITIAL_CAPACITY];
+    private double[] latitude = new double[INITIAL_CAPACITY];
+    private double[] longitude = new double[INITIAL_CAPACITY];
+    private double[] altitude = new double[INITIAL_CAPACITY];
+    private double[] velocity = new double[INITIAL_CAPACITY];
+    private double[] heading = new double[INITIAL_CAPACITY];
+    private int flightCount;
+
+    private int[] passengerId = new int[INITIAL_CAPACITY];
+    private String[] passengerName = new String[INITIAL_CAPACITY];
+    private int[] passengerFlight = new int[INITIAL_CAPACITY];
+    private int[] departureAirport = new int[INITIAL_CAPACITY];
+    private int[] arrivalAirport = new int[INITIAL_CAPACITY];
+    private int passengerCount;
+    /** The manifest_version the passengers were loaded at. */
+    private long manifestVersion;
+
+    /**
+     * Brings the store up to date with the passengers table. Returns true if
+     * anything changed.
+     */
+    public synchronized boolean sync(Database database) throws SQLException {
+        int loadedCount;
+        int loadedMaxId;
+        long loadedVersion;
+        lock.readLock().lock();
+        try {
+            loadedCount = passengerCount;
+            loadedMaxId = passengerCount == 0 ? 0 : passengerId[passengerCount - 1];
+            loadedVersion = manifestVersion;
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        // Rows are read outside the lock so readers keep going while SQLite works
+        boolean reload;
+        List<LoadedRow> rows;
+        long version;
+        long start = System.nanoTime();
+        try (Database.Handle db = database.reader()) {
+            // Read before the rows: a change committed in between is then
+            // loaded again by the next sync rather than missed
+            try (ResultSet rs = db.prepare("SELECT version FROM manifest_version").executeQuery()) {
+                version = rs.next() ? rs.getLong(1) : 0;
+            }
+            int total;
+            try (ResultSet rs = db.prepare("SELECT COUNT(*) FROM passengers").executeQuery()) {
+                total = rs.next() ? rs.getInt(1) : 0;
+            }
+            boolean changed = version != loadedVersion;
+            rows = changed ? Collections.emptyList() : load(db, loadedMaxId);
+            reload = changed || loadedCount + rows.size() != total;
+            if (reload) {
+                rows = load(db, 0);
+            }
+        }
+        SYNC_QUERY.recordSince(start);
+        if (!reload && rows.isEmpty()) {
+            return false;
+        }
+
+        lock.writeLock().lock();
+        try {
+            if (reload) {
+                clear();
+            }
+            for (LoadedRow row : rows) {
+                append(row);
+            }
+            manifestVersion = version;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return true;
+    }
+
+    /**
+     * Returns the flight's last known status and position, or null if it is
+     * not tracked or was never polled.
+     */
+    public FlightData latest(FlightKey flight) {
+        lock.readLock().lock();
+        try {
+            Integer slot = flightSlots.get(flight);
+            if (slot == null || flightStatus[slot] == NO_STATUS) {
+                return null;
+            }
+            return new FlightData(codes[flightStatus[slot]],
+                latitude[slot], longitude[slot], altitude[slot], velocity[slot], heading[slot]);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Records a lookup result. Returns false if the flight is not tracked.
+     */
+    public boolean update(FlightKey flight, FlightData data) {
+        lock.writeLock().lock();
+        try {
+            Integer slot = flightSlots.get(flight);
+            if (slot == null) {
+                return false;
+            }
+            setPosition(slot, intern(data.getStatus()), data);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Fills in the passenger ids of every flight, with its last known status
+     * and position (null if it was never polled).
+     */
+    public void trackedFlights(Map<FlightKey, List<Integer>> passengers,
+                               Map<FlightKey, String> lastStatuses,
+                               Map<FlightKey, FlightData> lastPositions) {
+        lock.readLock().lock();
+        try {
+            for (int i = 0; i < passengerCount; i++) {
+                FlightKey flight = flightKeys[passengerFlight[i]];
+                passengers.computeIfAbsent(flight, k -> new ArrayList<>()).add(passengerId[i]);
+            }
+            for (int slot = 0; slot < flightCount; slot++) {
+                int status = flightStatus[slot];
+                lastStatuses.put(flightKeys[slot], status == NO_STATUS ? null : codes[status]);
+                lastPositions.put(flightKeys[slot], status == NO_STATUS ? null : new FlightData(codes[status],
+                    latitude[slot], longitude[slot], altitude[slot], velocity[slot], heading[slot]));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getPassengerCount() {
+        lock.readLock().lock();
+        try {
+            return passengerCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getFlightCount() {
+        lock.readLock().lock();
+        try {
+            return flightCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the full /api/flights listing, one object per passenger. Meant
+     * for in-memory buffers; the read lock is held throughout.
+     */
+    void writeListing(JsonStreamWriter json) throws IOException {
+        lock.readLock().lock();
+        try {
+            json.beginArray();
+            for (int i = 0; i < passengerCount; i++) {
+                int slot = passengerFlight[i];
+                int status = flightStatus[slot];
+                json.beginObject();
+                json.name("id").value(passengerId[i]);
+                json.name("passengerName").value(passengerName[i]);
+                json.name("airline").value(codes[flightAirline[slot]]);
+                json.name("flightNumber").value(codes[flightNumber[slot]]);
+                json.name("departureAirport").value(codes[departureAirport[i]]);
+                json.name("arrivalAirport").value(codes[arrivalAirport[i]]);
+                json.name("status").value(status == NO_STATUS ? "unknown" : codes[status]);
+                if (status != NO_STATUS) {
+                    json.name("latitude").value(latitude[slot]);
+                    json.name("longitude").value(longitude[slot]);
+                    json.name("altitude").value(altitude[slot]);
+                    json.name("velocity").value(velocity[slot]);
+                }
+                json.endObject();
+            }
+            json.endArray();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Copies the passengers matching the filter whose id is greater than
+     * afterId into out, in id order, until out is full. Returns how many
+     * were found. The rows are copied under the same lock as the search, so
+     * a concurrent reload cannot mix two versions of the store in one page.
+     */
+    int find(Filter filter, int afterId, Row[] out) {
+        lock.readLock().lock();
+        try {
+            int airline = resolve(filter.airline);
+            int number = resolve(filter.flightNumber);
+            int departure = resolve(filter.departureAirport);
+            int arrival = resolve(filter.arrivalAirport);
+            int status = resolve(filter.status);
+            boolean unknownStatus = "unknown".equals(filter.status);
+            if (airline == ABSENT || number == ABSENT || departure == ABSENT || arrival == ABSENT
+                || (status == ABSENT && !unknownStatus)) {
+                return 0;
+            }
+
+            int found = 0;
+            for (int i = firstAfter(afterId); i < passengerCount && found < out.length; i++) {
+                int slot = passengerFlight[i];
+                if ((airline != ANY && flightAirline[slot] != airline)
+                    || (number != ANY && flightNumber[slot] != number)
+                    || (departure != ANY && departureAirport[i] != departure)
+                    || (arrival != ANY && arrivalAirport[i] != arrival)
+                    || (filter.status != null && flightStatus[slot] != status
+                        && !(unknownStatus && flightStatus[slot] == NO_STATUS))
+                    || (filter.departureFrom != null && codes[flightDate[slot]].compareTo(filter.departureFrom) < 0)
+                    || (filter.departureTo != null && codes[flightDate[slot]].compareTo(filter.departureTo) > 0)) {
+                    continue;
+                }
+                if (out[found] == null) {
+                    out[found] = new Row();
+                }
+                copy(i, out[found++]);
+            }
+            return found;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Copies one passenger and its flight's state into row. Must hold the
+     * lock.
+     */
+    private void copy(int index, Row row) {
+        int slot = passengerFlight[index];
+        int status = flightStatus[slot];
+        row.id = passengerId[index];
+        row.passengerName = passengerName[index];
+        row.airline = codes[flightAirline[slot]];
+        row.flightNumber = codes[flightNumber[slot]];
+        row.departureAirport = codes[departureAirport[index]];
+        row.arrivalAirport = codes[arrivalAirport[index]];
+        row.departureDate = codes[flightDate[slot]];
+        row.status = status == NO_STATUS ? null : codes[status];
+        row.latitude = latitude[slot];
+        row.longitude = longitude[slot];
+        row.altitude = altitude[slot];
+        row.velocity = velocity[slot];
+        row.heading = heading[slot];
+    }
+
+    /**
+     * Writes the store for {@link StateSnapshot}. The arrays are copied
+     * under the read lock and written out after it is released.
+     */
+    void writeSnapshot(StateSnapshot.Output out) throws IOException {
+        String[] codesCopy;
+        int[][] flightInts;
+        double[][] flightDoubles;
+        int[][] passengerInts;
+        String[] names;
+        long version;
+        lock.readLock().lock();
+        try {
+            version = manifestVersion;
+            codesCopy = Arrays.copyOf(codes, codeCount);
+            flightInts = new int[][] {
+                Arrays.copyOf(flightAirline, flightCount), Arrays.copyOf(flightNumber, flightCount),
+                Arrays.copyOf(flightDate, flightCount), Arrays.copyOf(flightStatus, flightCount)
+            };
+            flightDoubles = new double[][] {
+                Arrays.copyOf(latitude, flightCount), Arrays.copyOf(longitude, flightCount),
+                Arrays.copyOf(altitude, flightCount), Arrays.copyOf(velocity, flightCount),
+                Arrays.copyOf(heading, flightCount)
+            };
+            passengerInts = new int[][] {
+                Arrays.copyOf(passengerId, passengerCount), Arrays.copyOf(passengerFlight, passengerCount),
+                Arrays.copyOf(departureAirport, passengerCount), Arrays.copyOf(arrivalAirport, passengerCount)
+            };
+            names = Arrays.copyOf(passengerName, passengerCount);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        out.putLong(version);
+        out.putInt(codesCopy.length);
+        for (String code : codesCopy) {
+            out.putString(code);
+        }
+        out.putInt(flightInts[0].length);
+        for (int[] column : flightInts) {
+            out.putInts(column, column.length);
+        }
+        for (double[] column : flightDoubles) {
+            out.putDoubles(column, column.length);
+        }
+        out.putInt(names.length);
+        for (int[] column : passengerInts) {
+            out.putInts(column, column.length);
+        }
+        for (String name : names) {
+            out.putString(name);
+        }
+    }
+
+    /**
+     * Reads what {@link #writeSnapshot} wrote. The returned action replaces
+     * the store's contents, so nothing changes if a later part of the
+     * snapshot turns out to be unreadable.
+     */
+    Runnable readSnapshot(ByteBuffer in) {
+        long version = in.getLong();
+        String[] loadedCodes = new String[in.getInt()];
+        for (int i = 0; i < loadedCodes.length; i++) {
+            loadedCodes[i] = StateSnapshot.getString(in);
+        }
+        int flights = in.getInt();
+        int[] airlines = StateSnapshot.getInts(in, flights);
+        int[] numbers = StateSnapshot.getInts(in, flights);
+        int[] dates = StateSnapshot.getInts(in, flights);
+        int[] statuses = StateSnapshot.getInts(in, flights);
+        double[] lats = StateSnapshot.getDoubles(in, flights);
+        double[] lons = StateSnapshot.getDoubles(in, flights);
+        double[] alts = StateSnapshot.getDoubles(in, flights);
+        double[] vels = StateSnapshot.getDoubles(in, flights);
+        double[] headings = StateSnapshot.getDoubles(in, flights);
+        int passengers = in.getInt();
+        int[] ids = StateSnapshot.getInts(in, passengers);
+        int[] passengerFlights = StateSnapshot.getInts(in, passengers);
+        int[] departures = StateSnapshot.getInts(in, passengers);
+        int[] arrivals = StateSnapshot.getInts(in, passengers);
+        String[] names = new String[passengers];
+        for (int i = 0; i < passengers; i++) {
+            names[i] = StateSnapshot.getString(in);
+        }
+
+        FlightKey[] keys = new FlightKey[flights];
+        for (int slot = 0; slot < flights; slot++) {
+            keys[slot] = new FlightKey(loadedCodes[airlines[slot]], loadedCodes[numbers[slot]], loadedCodes[dates[slot]]);
+        }
+
+        return () -> {
+            lock.writeLock().lock();
+            try {
+                clear();
+                codes = Arrays.copyOf(loadedCodes, Math.max(INITIAL_CAPACITY, loadedCodes.length));
+                codeCount = loadedCodes.length;
+                for (int i = 0; i < codeCount; i++) {
+                    codeIndex.put(codes[i], i);
+                }
+
+                int flightCapacity = Math.max(INITIAL_CAPACITY, flights);
+                flightKeys = Arrays.copyOf(keys, flightCapacity);
+                flightAirline = Arrays.copyOf(airlines, flightCapacity);
+                flightNumber = Arrays.copyOf(numbers, flightCapacity);
+                flightDate = Arrays.copyOf(dates, flightCapacity);
+                flightStatus = Arrays.copyOf(statuses, flightCapacity);
+                latitude = Arrays.copyOf(lats, flightCapacity);
+                longitude = Arrays.copyOf(lons, flightCapacity);
+                altitude = Arrays.copyOf(alts, flightCapacity);
+                velocity = Arrays.copyOf(vels, flightCapacity);
+                heading = Arrays.copyOf(headings, flightCapacity);
+                flightCount = flights;
+                for (int slot = 0; slot < flights; slot++) {
+                    flightSlots.put(keys[slot], slot);
+                }
+
+                int passengerCapacity = Math.max(INITIAL_CAPACITY, passengers);
+                passengerId = Arrays.copyOf(ids, passengerCapacity);
+                passengerName = Arrays.copyOf(names, passengerCapacity);
+                passengerFlight = Arrays.copyOf(passengerFlights, passengerCapacity);
+                departureAirport = Arrays.copyOf(departures, passengerCapacity);
+                arrivalAirport = Arrays.copyOf(arrivals, passengerCapacity);
+                passengerCount = passengers;
+                manifestVersion = version;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        };
+    }
+
+    private int firstAfter(int afterId) {
+        int index = Arrays.binarySearch(passengerId, 0, passengerCount, afterId);
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    private int resolve(String value) {
+        if (value == null) {
+            return ANY;
+        }
+        Integer code = codeIndex.get(value);
+        return code != null ? code : ABSENT;
+    }
+
+    private static List<LoadedRow> load(Database.Handle db, int afterId) throws SQLException {
+        PreparedStatement stmt = db.prepare(
+            "SELECT p.id, p.name, p.airline, p.flight_number, p.departure_airport, p.arrival_airport, " +
+            "p.departure_date, fs.status, fs.latitude, fs.longitude, fs.altitude, fs.velocity, fs.heading " +
+            "FROM passengers p LEFT JOIN flight_status_latest fs ON fs.passenger_id = p.id " +
+            "WHERE p.id > ? ORDER BY p.id");
+        stmt.setInt(1, afterId);
+        List<LoadedRow> rows = new ArrayList<>();
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                LoadedRow row = new LoadedRow();
+                row.id = rs.getInt(1);
+                row.name = rs.getString(2);
+                row.flight = new FlightKey(rs.getString(3), rs.getString(4), rs.getString(7));
+                row.departureAirport = rs.getString(5);
+                row.arrivalAirport = rs.getString(6);
+                String status = rs.getString(8);
+                if (status != null) {
+                    row.data = new FlightData(status, rs.getDouble(9), rs.getDouble(10),
+                        rs.getDouble(11), rs.getDouble(12), rs.getDouble(13));
+                }
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    private void append(LoadedRow row) {
+        Integer slot = flightSlots.get(row.flight);
+        if (slot == null) {
+            slot = addFlight(row.flight);
+        }
+        // Statuses are written for all passengers of a flight together, and
+        // a live update is never older than the stored one
+        if (row.data != null && flightStatus[slot] == NO_STATUS) {
+            setPosition(slot, intern(row.data.getStatus()), row.data);
+        }
+
+        if (passengerCount == passengerId.length) {
+            int capacity = passengerCount * 2;
+            passengerId = Arrays.copyOf(passengerId, capacity);
+            passengerName = Arrays.copyOf(passengerName, capacity);
+            passengerFlight = Arrays.copyOf(passengerFlight, capacity);
+            departureAirport = Arrays.copyOf(departureAirport, capacity);
+            arrivalAirport = Arrays.copyOf(arrivalAirport, capacity);
+        }
+        int i = passengerCount++;
+        passengerId[i] = row.id;
+        passengerName[i] = row.name;
+        passengerFlight[i] = slot;
+        departureAirport[i] = intern(row.departureAirport);
+        arrivalAirport[i] = intern(row.arrivalAirport);
+    }
+
+    private int addFlight(FlightKey flight) {
+        if (flightCount == flightKeys.length) {
+            int capacity = flightCount * 2;
+            flightKeys = Arrays.copyOf(flightKeys, capacity);
+            flightAirline = Arrays.copyOf(flightAirline, capacity);
+            flightNumber = Arrays.copyOf(flightNumber, capacity);
+            flightDate = Arrays.copyOf(flightDate, capacity);
+            flightStatus = Arrays.copyOf(flightStatus, capacity);
+            latitude = Arrays.copyOf(latitude, capacity);
+            longitude = Arrays.copyOf(longitude, capacity);
+            altitude = Arrays.copyOf(altitude, capacity);
+            velocity = Arrays.copyOf(velocity, capacity);
+            heading = Arrays.copyOf(heading, capacity);
+        }
+        int slot = flightCount++;
+        flightKeys[slot] = flight;
+        flightAirline[slot] = intern(flight.getAirline());
+        flightNumber[slot] = intern(flight.getFlightNumber());
+        flightDate[slot] = intern(flight.getDepartureDate());
+        flightStatus[slot] = NO_STATUS;
+        flightSlots.put(flight, slot);
+        return slot;
+    }
+
+    private void setPosition(int slot, int status, FlightData data) {
+        flightStatus[slot] = status;
+        latitude[slot] = data.getLatitude();
+        longitude[slot] = data.getLongitude();
+        altitude[slot] = data.getAltitude();
+        velocity[slot] = data.getVelocity();
+        heading[slot] = data.getHeading();
+    }
+
+    private int intern(String value) {
+        Integer code = codeIndex.get(value);
+        if (code != null) {
+            return code;
+        }
+        if (codeCount == codes.length) {
+            codes = Arrays.copyOf(codes, codeCount * 2);
+        }
+        codes[codeCount] = value;
+        codeIndex.put(value, codeCount);
+        return codeCount++;
+    }
+
+    private void clear() {
+        codeIndex.clear();
+        Arrays.fill(codes, 0, codeCount, null);
+        codeCount = 0;
+        flightSlots.clear();
+        Arrays.fill(flightKeys, 0, flightCount, null);
+        flightCount = 0;
+        Arrays.fill(passengerName, 0, passengerCount, null);
+        passengerCount = 0;
+    }
+
+    /**
+     * Equality and date-range criteria on passengers; null means any.
+     */
+    static final class Filter {
+        String airline;
+        String flightNumber;
+        String departureAirport;
+        String arrivalAirport;
+        String status;
+        String departureFrom;
+        String departureTo;
+    }
+
+    /**
+     * Reusable copy of one passenger and its flight. status is null if the
+     * flight was never polled, in which case the position is meaningless.
+     */
+    static final class Row {
+        int id;
+        String passengerName;
+        String airline;
+        String flightNumber;
+        String departureAirport;
+        String arrivalAirport;
+        String departureDate;
+        String status;
+        double latitude;
+        double longitude;
+        double altitude;
+        double velocity;
+        double heading;
+    }
+
+    private static final class LoadedRow {
+        int id;
+        String name;
+        FlightKey flight;
+        String departureAirport;
+        String arrivalAirport;
+        FlightData data;
+    }
+}
@@ -0,0 +1,302 @@
+package com.flighttracker;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Server-Sent Events endpoint pushing per-flight position updates as the
+ * updater writes them.
+ *
+ * <p>The handler only sends the response headers and registers the client;
+ * no thread is parked per connection. Each subscriber has a pending map keyed
+ * by flight that keeps only the latest update, and a small shared pool
+ * drains subscribers with pending events. A slow client therefore falls
+ * behind by at most one event per flight; past {@code MAX_PENDING} flights
+ * it is told to resync from /api/flights instead.
+ *
+ * <p>A client that stops reading altogether blocks the delivery thread
+ * writing to it, and the JDK server cannot abort that write. A watchdog
+ * therefore drops any subscriber whose write has taken longer than
+ * {@code flighttracker.stream.writeTimeoutMs} and adds a thread to the pool
+ * in place of the blocked one, up to {@code flighttracker.stream.maxStalled}
+ * extra threads. The blocked thread closes the exchange and leaves the pool
+ * once its write returns or the connection fails.
+ */
+public class FlightStreamHandler implements HttpHandler {
+    private static final Logger LOGGER = Logger.getLogger(FlightStreamHandler.class.getName());
+    private static final int MAX_PENDING = Integer.getInteger("flighttracker.stream.maxPending", 10000);
+    private static final int DELIVERY_THREADS = Integer.getInteger("flighttracker.stream.threads", 4);
+    private static final int HEARTBEAT_SECONDS = 15;
+    private static final long WRITE_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(
+        Long.getLong("flighttracker.stream.writeTimeoutMs", 10000));
+    private static final int MAX_STALLED = Integer.getInteger("flighttracker.stream.maxStalled", 64);
+    private static final Metrics.Counter EVENTS_SENT = Metrics.counter("flighttracker_stream_events_total",
+        "Events written to stream subscribers");
+    private static final Metrics.Counter RESYNCS = Metrics.counter("flighttracker_stream_resyncs_total",
+        "Subscribers told to resync after falling too far behind");
+    private static final Metrics.Counter DROPPED = Metrics.counter("flighttracker_stream_stalled_total",
+        "Subscribers dropped because a write to them exceeded the timeout");
+    private static final byte[] HEARTBEAT = ": ping\n\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] RESYNC = "event: resync\ndata: {}\n\n".getBytes(StandardCharsets.UTF_8);
+
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final ThreadPoolExecutor delivery;
+    private final AtomicLong eventIds = new AtomicLong();
+    /** Delivery threads blocked in a write to a dropped subscriber. */
+    private int stalledThreads;
+
+    public FlightStreamHandler() {
+        AtomicInteger threads = new AtomicInteger();
+        this.delivery = new ThreadPoolExecutor(DELIVERY_THREADS, DELIVERY_THREADS, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "flight-stream-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "flight-stream-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeat.scheduleWithFixedDelay(this::heartbeat, HEARTBEAT_SECONDS, HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+        heartbeat.scheduleWithFixedDelay(this::dropStalled, 1, 1, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(405, -1);
+            exchange.close();
+            return;
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        out.write("retry: 5000\n\n".getBytes(StandardCharsets.UTF_8));
+        out.flush();
+
+        subscribers.add(new Subscriber(exchange, out));
+        LOGGER.fine(() -> "Stream subscriber connected, " + subscribers.size() + " open");
+    }
+
+    /**
+     * Publishes the latest state of a flight to every subscriber. The event
+     * is serialized once and shared.
+     */
+    public void publish(FlightKey flight, FlightData data, List<Integer> passengerIds) {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        byte[] event = encode(flight, data, passengerIds);
+        for (Subscriber subscriber : subscribers) {
+            subscriber.offer(flight, event);
+        }
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    private byte[] encode(FlightKey flight, FlightData data, List<Integer> passengerIds) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try {
+            bytes.write(("event: flight\nid: " + eventIds.incrementAndGet() + "\ndata: ")
+                .getBytes(StandardCharsets.UTF_8));
+            try (JsonStreamWriter json = new JsonStreamWriter(bytes)) {
+                json.beginObject();
+                json.name("airline").value(flight.getAirline());
+                json.name("flightNumber").value(flight.getFlightNumber());
+                json.name("departureDate").value(flight.getDepartureDate());
+                json.name("status").value(data.getStatus());
+                json.name("latitude").value(data.getLatitude());
+                json.name("longitude").value(data.getLongitude());
+                json.name("altitude").value(data.getAltitude());
+                json.name("velocity").value(data.getVelocity());
+                json.name("heading").value(data.getHeading());
+                json.name("passengerIds").beginArray();
+                for (int id : passengerIds) {
+                    json.value(id);
+                }
+                json.endArray();
+                json.endObject();
+            }
+            bytes.write("\n\n".getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new IllegalStateException("Writing to an in-memory buffer failed", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private void heartbeat() {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.offer(null, HEARTBEAT);
+        }
+    }
+
+    private void dropStalled() {
+        long now = System.nanoTime();
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber.stallIfWritingSince(now - WRITE_TIMEOUT_NANOS)) {
+                subscribers.remove(subscriber);
+                DROPPED.increment();
+                LOGGER.info("Dropped a stream subscriber that stopped reading, " + subscribers.size() + " open");
+                resizeDelivery(1);
+            }
+        }
+    }
+
+    /**
+     * Keeps DELIVERY_THREADS threads available to live subscribers while
+     * others are blocked writing to dropped ones.
+     */
+    private synchronized void resizeDelivery(int stalledDelta) {
+        stalledThreads += stalledDelta;
+        int size = DELIVERY_THREADS + Math.min(stalledThreads, MAX_STALLED);
+        if (size > delivery.getMaximumPoolSize()) {
+            delivery.setMaximumPoolSize(size);
+            delivery.setCorePoolSize(size);
+        } else {
+            delivery.setCorePoolSize(size);
+            delivery.setMaximumPoolSize(size);
+        }
+    }
+
+    /**
+     * One connected client. {@code pending} is guarded by the subscriber's
+     * monitor; {@code scheduled} ensures at most one drain task per client.
+     */
+    private final class Subscriber {
+        private static final int IDLE = 0;
+        private static final int WRITING = 1;
+        private static final int STALLED = 2;
+        private static final int CLOSED = 3;
+
+        private final HttpExchange exchange;
+        private final OutputStream out;
+        private final LinkedHashMap<FlightKey, byte[]> pending = new LinkedHashMap<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        /** IDLE, WRITING, or STALLED once the watchdog gave up on the current write. */
+        private final AtomicInteger state = new AtomicInteger(IDLE);
+        private volatile long writeStartedAt;
+        private byte[] control;
+        private boolean overflowed;
+
+        Subscriber(HttpExchange exchange, OutputStream out) {
+            this.exchange = exchange;
+            this.out = out;
+        }
+
+        /**
+         * Queues an event, replacing any undelivered event for the same
+         * flight. A null flight marks a control message such as a heartbeat.
+         */
+        void offer(FlightKey flight, byte[] event) {
+            synchronized (this) {
+                if (overflowed) {
+                    return;
+                }
+                if (flight == null) {
+                    control = event;
+                } else {
+                    // Re-insert so the map stays ordered by most recent update
+                    pending.remove(flight);
+                    pending.put(flight, event);
+                    if (pending.size() > MAX_PENDING) {
+                        pending.clear();
+                        overflowed = true;
+                    }
+                }
+            }
+            if (scheduled.compareAndSet(false, true)) {
+                delivery.execute(this::drain);
+            }
+        }
+
+        /**
+         * Marks the subscriber stalled if its current write started before
+         * {@code deadline}. Returns true at most once, for the watchdog.
+         */
+        boolean stallIfWritingSince(long deadline) {
+            return state.get() == WRITING && writeStartedAt - deadline < 0
+                && state.compareAndSet(WRITING, STALLED);
+        }
+
+        private void drain() {
+            try {
+                while (true) {
+                    List<byte[]> batch;
+                    boolean resync;
+                    synchronized (this) {
+                        batch = new ArrayList<>(pending.size() + 1);
+                        if (control != null) {
+                            batch.add(control);
+                            control = null;
+                        }
+                        for (Iterator<Map.Entry<FlightKey, byte[]>> it = pending.entrySet().iterator(); it.hasNext(); ) {
+                            batch.add(it.next().getValue());
+                            it.remove();
+                        }
+                        resync = overflowed;
+                        overflowed = false;
+                        if (batch.isEmpty() && !resync) {
+                            scheduled.set(false);
+                            return;
+                        }
+                    }
+                    writeStartedAt = System.nanoTime();
+                    if (!state.compareAndSet(IDLE, WRITING)) {
+                        return;
+                    }
+                    if (resync) {
+                        RESYNCS.increment();
+                        out.write(RESYNC);
+                    }
+                    for (byte[] event : batch) {
+                        out.write(event);
+                    }
+                    out.flush();
+                    EVENTS_SENT.add(batch.size());
+                    if (!state.compareAndSet(WRITING, IDLE)) {
+                        // Dropped by the watchdog while this write was blocked
+                        close();
+                        return;
+                    }
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Stream subscriber disconnected", e);
+                subscribers.remove(this);
+                close();
+            }
+        }
+
+        private void close() {
+            if (state.getAndSet(CLOSED) == STALLED) {
+                resizeDelivery(-1);
+            }
+            exchange.close();
+        }
+    }
+}
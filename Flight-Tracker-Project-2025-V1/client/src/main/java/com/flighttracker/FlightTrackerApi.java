@@ -1,5 +1,8 @@
 package com.flighttracker;
 
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
@@ -7,46 +10,268 @@ import com.sun.net.httpserver.HttpServer;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.ResultSet;
+import java.nio.charset.StandardCharsets;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.json.JSONObject;
 
+/**
+ * The tracker's single HTTP server: one route table, shared CORS handling,
+ * and a bounded worker pool that sheds load with 503 once its queue is full.
+ */
 public class FlightTrackerApi {
     private static final Logger LOGGER = Logger.getLogger(FlightTrackerApi.class.getName());
-    private static final String DB_URL = "jdbc:sqlite:flight_tracker.db";
-    private static final int PORT = 8888;
-
-    public static void startApiServer(FlightTrackerSimple tracker) {
-        try {
-            HttpServer server = HttpServer.create(new InetSocketAddress(PORT), 0);
-            server.createContext("/api/flights", new FlightsHandler());
-            server.createContext("/api/upload", new FileUploadHandler(tracker));
-            server.createContext("/api/passengers/clear", new ClearHandler());
-            server.setExecutor(null);
-            server.start();
-            LOGGER.info("API server started on port " + PORT);
-            System.out.println("API server started on port " + PORT);
-        } catch (IOException e) {
-            LOGGER.log(Level.SEVERE, "Failed to start API server", e);
-            System.err.println("Failed to start API server: " + e.getMessage());
+    private static final int PORT = Integer.getInteger("flighttracker.http.port", 8888);
+    private static final int HTTP_THREADS = Integer.getInteger("flighttracker.http.threads", 32);
+    private static final int HTTP_QUEUE = Integer.getInteger("flighttracker.http.queue", 256);
+    private static final int HTTP_BACKLOG = Integer.getInteger("flighttracker.http.backlog", 1024);
+
+    /** Set while a rejected exchange runs on the dispatcher thread, so it is answered with 503. */
+    private static final ThreadLocal<Boolean> SHEDDING = ThreadLocal.withInitial(() -> Boolean.FALSE);
+    private static final Metrics.Counter SHED = Metrics.counter("flighttracker_http_shed_total",
+        "Requests rejected with 503 because the worker queue was full");
+
+    /**
+     * Builds the route table. Contexts match by longest path prefix, so
+     * /api/flights/stream and the map queries take precedence over
+     * /api/flights.
+     */
+    static Map<String, HttpHandler> routes(FlightTrackerSimple tracker) {
+        Map<String, HttpHandler> routes = new LinkedHashMap<>();
+        routes.put("/api/flights", new FlightsHandler(
+            tracker.getStateStore(), tracker.getFlightsCache(), tracker.getHistoryStore()));
+        routes.put("/api/flights/stream", tracker.getFlightStream());
+        SpatialQueryHandler spatial = new SpatialQueryHandler(tracker.getSpatialIndex());
+        routes.put("/api/flights/area", spatial);
+        routes.put("/api/flights/nearest", spatial);
+        routes.put("/api/flights/near", spatial);
+        routes.put("/api/upload", new FileUploadHandler(tracker.getUploadJobs()));
+        routes.put("/api/passengers/clear", new ClearHandler(tracker));
+        routes.put("/api/reports", new ReportsHandler(tracker.getReports()));
+        routes.put("/api/metrics", new MetricsHandler());
+        routes.put("/api/logging", new LoggingHandler());
+        return routes;
+    }
+
+    public static HttpServer startApiServer(FlightTrackerSimple tracker) throws IOException {
+        configureConnections();
+
+        HttpServer server = HttpServer.create(new InetSocketAddress(PORT), HTTP_BACKLOG);
+        Filter cors = new CorsFilter();
+        Filter shedding = new LoadSheddingFilter();
+        for (Map.Entry<String, HttpHandler> route : routes(tracker).entrySet()) {
+            HttpContext context = server.createContext(route.getKey(), route.getValue());
+            context.getFilters().add(new MetricsFilter(route.getKey()));
+            // Ahead of shedding, so 503 responses carry CORS headers too
+            context.getFilters().add(cors);
+            context.getFilters().add(shedding);
+        }
+
+        ThreadPoolExecutor executor = newExecutor();
+        Metrics.gauge("flighttracker_http_queue_depth", "Requests waiting for a worker thread",
+            () -> executor.getQueue().size());
+        Metrics.gauge("flighttracker_http_active_workers", "Worker threads handling a request",
+            executor::getActiveCount);
+        server.setExecutor(executor);
+        server.start();
+        LOGGER.info("API server started on port " + PORT + " with " + HTTP_THREADS + " workers");
+        return server;
+    }
+
+    /**
+     * Keep-alive and timeout settings for the JDK server. They are read once
+     * when the server classes load, so they must be set before the server is
+     * created; explicit -D settings win. No request or response time limit
+     * is set: the JDK's request limit runs until the body has been read, so
+     * it would abort long uploads, and a response limit would cut off the
+     * event stream.
+     */
+    private static void configureConnections() {
+        setDefault("sun.net.httpserver.idleInterval", "30");
+        setDefault("sun.net.httpserver.maxIdleConnections", "1000");
+        setDefault("sun.net.httpserver.nodelay", "true");
+    }
+
+    private static void setDefault(String property, String value) {
+        if (System.getProperty(property) == null) {
+            System.setProperty(property, value);
+        }
+    }
+
+    private static ThreadPoolExecutor newExecutor() {
+        AtomicInteger threads = new AtomicInteger();
+        return new ThreadPoolExecutor(
+            HTTP_THREADS, HTTP_THREADS,
+            60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(HTTP_QUEUE),
+            runnable -> {
+                Thread thread = new Thread(runnable, "http-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            },
+            // The exchange is not reachable from the rejected task, so run it
+            // on the dispatcher thread flagged for LoadSheddingFilter, which
+            // answers 503 without invoking the handler.
+            (task, executor) -> {
+                SHEDDING.set(Boolean.TRUE);
+                try {
+                    task.run();
+                } finally {
+                    SHEDDING.set(Boolean.FALSE);
+                }
+            }
+        );
+    }
+
+    /**
+     * Counts requests per route by status class and records their latency.
+     * For /api/flights/stream that is the time to send the headers and
+     * register the subscriber; the handler returns while the stream stays
+     * open, so how long streams last is not measured here.
+     */
+    static class MetricsFilter extends Filter {
+        private final Metrics.Histogram latency;
+        private final Metrics.Counter[] byClass = new Metrics.Counter[6];
+
+        MetricsFilter(String route) {
+            latency = Metrics.histogram("flighttracker_http_request_seconds",
+                "HTTP request latency by route", "route", route);
+            for (int i = 2; i < byClass.length; i++) {
+                byClass[i] = Metrics.counter("flighttracker_http_requests_total",
+                    "HTTP requests by route and status class", "route", route, "code", i + "xx");
+            }
+        }
+
+        @Override
+        public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+            long start = System.nanoTime();
+            try {
+                chain.doFilter(exchange);
+            } finally {
+                int code = exchange.getResponseCode();
+                // No response sent means the handler failed
+                int statusClass = code >= 200 && code < 600 ? code / 100 : 5;
+                byClass[statusClass].increment();
+                latency.recordSince(start);
+            }
+        }
+
+        @Override
+        public String description() {
+            return "Records request counts and latency";
+        }
+    }
+
+    static class MetricsHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                exchange.close();
+                return;
+            }
+            byte[] body = Metrics.scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        }
+    }
+
+    static class LoadSheddingFilter extends Filter {
+        @Override
+        public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+            if (!SHEDDING.get()) {
+                chain.doFilter(exchange);
+                return;
+            }
+            SHED.increment();
+            LOGGER.warning("Server overloaded, rejecting " + exchange.getRequestMethod() + " "
+                + exchange.getRequestURI().getPath());
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+        }
+
+        @Override
+        public String description() {
+            return "Rejects requests with 503 when the worker queue is full";
+        }
+    }
+
+    static class CorsFilter extends Filter {
+        @Override
+        public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+            Headers headers = exchange.getResponseHeaders();
+            headers.set("Access-Control-Allow-Origin", "*");
+            headers.set("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS");
+            headers.set("Access-Control-Allow-Headers", "Content-Type,Authorization,If-None-Match");
+            headers.set("Access-Control-Expose-Headers", "ETag");
+
+            // Handle preflight requests
+            if ("OPTIONS".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(204, -1);
+                exchange.close();
+                return;
+            }
+            chain.doFilter(exchange);
+        }
+
+        @Override
+        public String description() {
+            return "Adds CORS headers and answers preflight requests";
         }
     }
 
     static class FlightsHandler implements HttpHandler {
+        private static final Pattern TRACK_PATH = Pattern.compile("/api/flights/(\\d{1,9})/track/?");
+
+        private final FlightStateStore stateStore;
+        private final FlightsSnapshotCache flightsCache;
+        private final FlightHistoryStore historyStore;
+
+        FlightsHandler(FlightStateStore stateStore, FlightsSnapshotCache flightsCache, FlightHistoryStore historyStore) {
+            this.stateStore = stateStore;
+            this.flightsCache = flightsCache;
+            this.historyStore = historyStore;
+        }
+
         @Override
         public void handle(HttpExchange exchange) throws IOException {
             if ("GET".equals(exchange.getRequestMethod())) {
                 try {
-                    String response = getFlightsJson();
-                    
-                    exchange.getResponseHeaders().add("Content-Type", "application/json");
-                    exchange.sendResponseHeaders(200, response.length());
-                    
-                    try (OutputStream os = exchange.getResponseBody()) {
-                        os.write(response.getBytes());
+                    // Plain requests get the cached full listing; any query
+                    // parameter switches to the filtered, paginated view
+                    Map<String, String> params = QueryParams.parse(exchange.getRequestURI().getRawQuery());
+                    String path = exchange.getRequestURI().getPath();
+                    Matcher track = TRACK_PATH.matcher(path);
+                    if (track.matches()) {
+                        historyStore.sendTrack(exchange, Integer.parseInt(track.group(1)), params);
+                    } else if (!path.equals("/api/flights") && !path.equals("/api/flights/")) {
+                        String response = "{\"error\": \"Not found\"}";
+                        exchange.sendResponseHeaders(404, response.length());
+                        try (OutputStream os = exchange.getResponseBody()) {
+                            os.write(response.getBytes());
+                        }
+                    } else if (params.isEmpty()) {
+                        FlightsSnapshotCache.send(exchange, flightsCache.get());
+                    } else {
+                        FlightQuery.send(exchange, stateStore, params);
                     }
                 } catch (Exception e) {
                     LOGGER.log(Level.SEVERE, "Error handling request", e);
@@ -64,115 +289,56 @@ public class FlightTrackerApi {
                 }
             }
         }
-        
-        private String getFlightsJson() throws Exception {
-            StringBuilder json = new StringBuilder();
-            json.append("[");
-
-            try (Connection conn = DriverManager.getConnection(DB_URL);
-                Statement stmt = conn.createStatement()) {
-
-                ResultSet rs = stmt.executeQuery(
-                    "SELECT p.id, p.name, p.airline, p.flight_number, p.departure_airport, p.arrival_airport, " +
-                    "fs.status, fs.latitude, fs.longitude, fs.altitude, fs.velocity " +
-                    "FROM passengers p " +
-                    "LEFT JOIN (" +
-                    "    SELECT fs1.* FROM flight_status fs1 " +
-                    "    JOIN (" +
-                    "        SELECT passenger_id, MAX(last_update) as max_update " +
-                    "        FROM flight_status " +
-                    "        GROUP BY passenger_id" +
-                    "    ) fs2 ON fs1.passenger_id = fs2.passenger_id AND fs1.last_update = fs2.max_update" +
-                    ") fs ON p.id = fs.passenger_id"
-                );
-
-                boolean first = true;
-                while (rs.next()) {
-                    if (!first) {
-                        json.append(",");
-                    }
-                    first = false;
-
-                    json.append("{");
-                    json.append("\"id\":").append(rs.getInt("id")).append(",");
-                    json.append("\"passengerName\":\"").append(rs.getString("name")).append("\",");
-                    json.append("\"airline\":\"").append(rs.getString("airline")).append("\",");
-                    json.append("\"flightNumber\":\"").append(rs.getString("flight_number")).append("\",");
-                    json.append("\"departureAirport\":\"").append(rs.getString("departure_airport")).append("\",");
-                    json.append("\"arrivalAirport\":\"").append(rs.getString("arrival_airport")).append("\",");
-
-                    // Status might be null if no status updates yet
-                    String status = rs.getString("status");
-                    json.append("\"status\":\"").append(status != null ? status : "unknown").append("\"");
-
-                    // Add coordinates if available
-                    if (status != null) {
-                        json.append(",\"latitude\":").append(rs.getDouble("latitude"));
-                        json.append(",\"longitude\":").append(rs.getDouble("longitude"));
-                        json.append(",\"altitude\":").append(rs.getDouble("altitude"));
-                        json.append(",\"velocity\":").append(rs.getDouble("velocity"));
-                    }
-
-                    json.append("}");
-                }
-            }
-
-            json.append("]");
-            return json.toString();
-        }
     }
     
     static class ClearHandler implements HttpHandler {
+        private final FlightTrackerSimple tracker;
+
+        ClearHandler(FlightTrackerSimple tracker) {
+            this.tracker = tracker;
+        }
+
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            System.out.println("Received clear passengers request: " + exchange.getRequestMethod());
-            
-            // Enable CORS for development
-            exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
-            exchange.getResponseHeaders().add("Access-Control-Allow-Methods", "GET, POST, OPTIONS");
-            exchange.getResponseHeaders().add("Access-Control-Allow-Headers", "Content-Type,Authorization");
-            
-            // Handle OPTIONS preflight request
-            if ("OPTIONS".equals(exchange.getRequestMethod())) {
-                System.out.println("Handling OPTIONS request");
-                exchange.sendResponseHeaders(204, -1);
-                return;
-            }
-            
             if ("POST".equals(exchange.getRequestMethod())) {
-                System.out.println("Processing POST request to clear data");
                 try {
                     // Very simple approach - just delete everything
-                    try (Connection conn = DriverManager.getConnection(DB_URL)) {
-                        System.out.println("Connected to database");
-                        try (Statement stmt = conn.createStatement()) {
-                            System.out.println("Deleting flight_status records");
-                            int deleted = stmt.executeUpdate("DELETE FROM flight_status");
-                            System.out.println("Deleted " + deleted + " flight_status records");
-                        }
-                        try (Statement stmt = conn.createStatement()) {
-                            System.out.println("Deleting passengers records");
-                            int deleted = stmt.executeUpdate("DELETE FROM passengers");
-                            System.out.println("Deleted " + deleted + " passenger records");
-                        }
+                    StringBuilder summary = new StringBuilder("Cleared passenger data:");
+                    List<String> tables = new ArrayList<>(Arrays.asList(
+                        "flight_status_latest", "flight_track", "flight_status", "passengers", "imported_files"
+                    ));
+                    tables.addAll(Arrays.asList(ReportRollups.tables()));
+                    try (Database.Handle db = tracker.getDatabase().writer()) {
+                        db.inTransaction(() -> {
+                            try (Statement stmt = db.connection().createStatement()) {
+                                for (String table : tables) {
+                                    int deleted = stmt.executeUpdate("DELETE FROM " + table);
+                                    summary.append(' ').append(table).append('=').append(deleted);
+                                }
+                            }
+                        });
+                        // Still holding the writer, so nothing commits in between:
+                        // drop the passengers from the in-memory state and schedule
+                        // first, then discard whatever was queued. An update cycle
+                        // that started before the clear enqueues with the old
+                        // generation, so its records are dropped too.
+                        tracker.refreshSchedule();
+                        int discarded = tracker.getStatusWriter().discardQueued();
+                        summary.append(" queued_status_writes=").append(discarded);
                     }
+                    LOGGER.info(summary.toString());
                     
                     String response = "{\"success\":true,\"message\":\"All passenger data cleared successfully\"}";
-                    System.out.println("Sending success response: " + response);
                     exchange.getResponseHeaders().set("Content-Type", "application/json");
                     exchange.sendResponseHeaders(200, response.length());
                     
                     try (OutputStream os = exchange.getResponseBody()) {
                         os.write(response.getBytes());
                     }
-                    
-                    System.out.println("Clear passengers request succeeded");
                 } catch (Exception e) {
-                    System.err.println("Error clearing data: " + e.getMessage());
-                    e.printStackTrace();
+                    LOGGER.log(Level.SEVERE, "Error clearing data", e);
                     
                     String response = "{\"success\":false,\"message\":\"Internal server error: " + e.getMessage() + "\"}";
-                    System.out.println("Sending error response: " + response);
                     exchange.getResponseHeaders().set("Content-Type", "application/json");
                     exchange.sendResponseHeaders(500, response.length());
                     try (OutputStream os = exchange.getResponseBody()) {
@@ -180,7 +346,6 @@ public class FlightTrackerApi {
                     }
                 }
             } else {
-                System.out.println("Method not allowed: " + exchange.getRequestMethod());
                 String response = "{\"error\":\"Method not allowed\"}";
                 exchange.getResponseHeaders().set("Content-Type", "application/json");
                 exchange.sendResponseHeaders(405, response.length());
@@ -190,4 +355,65 @@ public class FlightTrackerApi {
             }
         }
     }
+
+    /**
+     * GET reports the tracker's log level and debug sample rate; POST changes
+     * them, e.g. {@code POST /api/logging?level=FINE&sample=10}. Changes last
+     * until the next restart.
+     */
+    static class LoggingHandler implements HttpHandler {
+        /** Held so the level set here is not lost when the logger is collected. */
+        private static final Logger TRACKER_LOGGER = Logger.getLogger("com.flighttracker");
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String method = exchange.getRequestMethod();
+            int status = 200;
+            String error = null;
+            if ("POST".equals(method)) {
+                try {
+                    Map<String, String> params = QueryParams.parse(exchange.getRequestURI().getRawQuery());
+                    if (params.containsKey("sample")) {
+                        LogSampler.setSampleEvery(QueryParams.getInt(params, "sample", 1));
+                    }
+                    if (params.containsKey("level")) {
+                        setLevel(Level.parse(params.get("level").toUpperCase(Locale.ROOT)));
+                    }
+                } catch (IllegalArgumentException e) {
+                    status = 400;
+                    error = e.getMessage();
+                }
+            } else if (!"GET".equals(method)) {
+                exchange.sendResponseHeaders(405, -1);
+                exchange.close();
+                return;
+            }
+
+            Level level = TRACKER_LOGGER.getLevel();
+            String response = error != null
+                ? "{\"error\":" + JSONObject.quote(error) + "}"
+                : "{\"level\":\"" + (level != null ? level.getName() : "INHERIT") + "\",\"sampleEvery\":"
+                    + LogSampler.getSampleEvery() + "}";
+            byte[] body = response.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        }
+
+        /**
+         * Sets the tracker's level and lowers the root handlers' thresholds
+         * so the extra records are actually written.
+         */
+        private static void setLevel(Level level) {
+            TRACKER_LOGGER.setLevel(level);
+            for (Handler handler : Logger.getLogger("").getHandlers()) {
+                if (handler.getLevel().intValue() > level.intValue()) {
+                    handler.setLevel(level);
+                }
+            }
+            LOGGER.info("Tracker log level set to " + level);
+        }
+    }
 }
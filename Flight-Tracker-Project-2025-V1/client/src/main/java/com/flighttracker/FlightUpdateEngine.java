@@ -0,0 +1,223 @@
+package com.flighttracker;
+
+import java.util.Collection;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Polls flights concurrently on a bounded worker pool. Upstream calls share a
+ * global {@link RateLimiter} and are abandoned after a per-call timeout.
+ * Results are handed back on the thread that runs the cycle, so the caller
+ * can write them to the database without extra synchronization.
+ */
+public class FlightUpdateEngine {
+    private static final Logger LOGGER = Logger.getLogger(FlightUpdateEngine.class.getName());
+    private static final LogSampler DEBUG = new LogSampler(LOGGER);
+    private static final Metrics.Histogram CYCLE_DURATION = Metrics.histogram("flighttracker_update_cycle_seconds",
+        "Duration of update cycles, from first lookup to last result handled");
+    private static final Metrics.Histogram FETCH_DURATION = Metrics.histogram("flighttracker_fetch_seconds",
+        "Latency of individual upstream flight lookups");
+    private static final Metrics.Histogram RATE_LIMIT_WAIT = Metrics.histogram("flighttracker_fetch_rate_limit_wait_seconds",
+        "Time lookups spend waiting for the upstream rate limiter");
+    private static final Metrics.Counter FETCH_SUCCESS = Metrics.counter("flighttracker_fetch_total",
+        "Upstream flight lookups by outcome", "outcome", "success");
+    private static final Metrics.Counter FETCH_ERROR = Metrics.counter("flighttracker_fetch_total",
+        "Upstream flight lookups by outcome", "outcome", "error");
+    private static final Metrics.Counter FETCH_TIMEOUT = Metrics.counter("flighttracker_fetch_total",
+        "Upstream flight lookups by outcome", "outcome", "timeout");
+    private static final Metrics.Counter HANDLER_ERRORS = Metrics.counter("flighttracker_update_handler_errors_total",
+        "Lookup results that could not be applied");
+
+    /**
+     * Receives the outcome of each successful lookup.
+     */
+    public interface ResultHandler {
+        void onResult(FlightKey flight, FlightData data) throws Exception;
+    }
+
+    private final FlightDataFetcher fetcher;
+    private final RateLimiter rateLimiter;
+    private final long timeoutMillis;
+    private final ExecutorService workers;
+    private final ExecutorService calls;
+    private volatile CycleStats lastCycle;
+
+    public FlightUpdateEngine(FlightDataFetcher fetcher, int threads, double requestsPerSecond, long timeoutMillis) {
+        this.fetcher = fetcher;
+        this.rateLimiter = new RateLimiter(requestsPerSecond);
+        this.timeoutMillis = timeoutMillis;
+        this.workers = Executors.newFixedThreadPool(threads, daemonThreads("flight-update"));
+        // Timed-out calls may keep their thread busy until the fetcher notices
+        // the interrupt, so the call pool gets some slack over the worker pool.
+        this.calls = Executors.newFixedThreadPool(threads * 2, daemonThreads("flight-fetch"));
+    }
+
+    /**
+     * Fetches every flight once and blocks until all lookups have completed,
+     * failed or timed out.
+     */
+    public CycleStats runCycle(Collection<FlightKey> flights, ResultHandler handler) throws InterruptedException {
+        long start = System.nanoTime();
+        ExecutorCompletionService<FlightResult> completion = new ExecutorCompletionService<>(workers);
+        for (FlightKey flight : flights) {
+            completion.submit(() -> fetchWithTimeout(flight));
+        }
+
+        // During an upstream outage every lookup fails the same way, so only
+        // the first failure of each kind is logged in full; the rest are
+        // counted in the cycle summary and sampled at FINE
+        int succeeded = 0;
+        int failed = 0;
+        int timedOut = 0;
+        int handlerErrors = 0;
+        for (int i = 0; i < flights.size(); i++) {
+            FlightResult result;
+            try {
+                result = completion.take().get();
+            } catch (ExecutionException e) {
+                if (failed++ == 0) {
+                    LOGGER.log(Level.WARNING, "Flight lookup failed", e.getCause());
+                } else {
+                    DEBUG.log(() -> "Flight lookup failed: " + e.getCause());
+                }
+                continue;
+            }
+
+            if (result.timedOut) {
+                timedOut++;
+                continue;
+            }
+            try {
+                handler.onResult(result.flight, result.data);
+                succeeded++;
+                DEBUG.log(() -> "Updated flight " + result.flight + ": " + result.data.getStatus());
+            } catch (Exception e) {
+                failed++;
+                HANDLER_ERRORS.increment();
+                if (handlerErrors++ == 0) {
+                    LOGGER.log(Level.WARNING, "Error saving flight " + result.flight, e);
+                } else {
+                    DEBUG.log(() -> "Error saving flight " + result.flight + ": " + e);
+                }
+            }
+        }
+        if (timedOut > 0) {
+            LOGGER.warning(timedOut + " of " + flights.size() + " lookups timed out after " + timeoutMillis + " ms");
+        }
+
+        CYCLE_DURATION.recordSince(start);
+        CycleStats stats = new CycleStats(flights.size(), succeeded, failed, timedOut,
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        lastCycle = stats;
+        return stats;
+    }
+
+    private FlightResult fetchWithTimeout(FlightKey flight) throws Exception {
+        long waitStart = System.nanoTime();
+        rateLimiter.acquire();
+        long start = System.nanoTime();
+        RATE_LIMIT_WAIT.recordNanos(start - waitStart);
+        Future<FlightData> call = calls.submit(() -> fetcher.fetch(flight));
+        try {
+            FlightData data = call.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            FETCH_DURATION.recordSince(start);
+            FETCH_SUCCESS.increment();
+            return new FlightResult(flight, data, false);
+        } catch (TimeoutException e) {
+            FETCH_DURATION.recordSince(start);
+            FETCH_TIMEOUT.increment();
+            call.cancel(true);
+            DEBUG.log(() -> "Lookup for flight " + flight + " timed out after " + timeoutMillis + " ms");
+            return new FlightResult(flight, null, true);
+        } catch (ExecutionException e) {
+            FETCH_DURATION.recordSince(start);
+            FETCH_ERROR.increment();
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    public CycleStats getLastCycle() {
+        return lastCycle;
+    }
+
+    public void shutdown() {
+        workers.shutdownNow();
+        calls.shutdownNow();
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static final class FlightResult {
+        final FlightKey flight;
+        final FlightData data;
+        final boolean timedOut;
+
+        FlightResult(FlightKey flight, FlightData data, boolean timedOut) {
+            this.flight = flight;
+            this.data = data;
+            this.timedOut = timedOut;
+        }
+    }
+
+    /**
+     * Summary of one update cycle.
+     */
+    public static final class CycleStats {
+        private final int flights;
+        private final int succeeded;
+        private final int failed;
+        private final int timedOut;
+        private final long durationMillis;
+
+        CycleStats(int flights, int succeeded, int failed, int timedOut, long durationMillis) {
+            this.flights = flights;
+            this.succeeded = succeeded;
+            this.failed = failed;
+            this.timedOut = timedOut;
+            this.durationMillis = durationMillis;
+        }
+
+        public int getFlights() {
+            return flights;
+        }
+
+        public int getSucceeded() {
+            return succeeded;
+        }
+
+        public int getFailed() {
+            return failed;
+        }
+
+        public int getTimedOut() {
+            return timedOut;
+        }
+
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        @Override
+        public String toString() {
+            return flights + " flights in " + durationMillis + " ms (" + succeeded + " updated, "
+                + failed + " failed, " + timedOut + " timed out)";
+        }
+    }
+}
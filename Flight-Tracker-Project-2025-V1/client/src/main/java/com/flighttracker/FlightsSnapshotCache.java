@@ -0,0 +1,184 @@
+package com.flighttracker;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Read-through cache of the full /api/flights listing. Writers only bump the
+ * version through {@link #invalidate}; the next read rebuilds the JSON once,
+ * together with its gzip encoding and ETag, and every read after that is
+ * served from those bytes until the data changes again.
+ */
+public class FlightsSnapshotCache {
+    private static final long STARTED_AT = System.currentTimeMillis();
+    private static final Metrics.Counter HITS = Metrics.counter("flighttracker_snapshot_requests_total",
+        "Full listing requests by how they were served", "result", "hit");
+    private static final Metrics.Counter REBUILDS = Metrics.counter("flighttracker_snapshot_requests_total",
+        "Full listing requests by how they were served", "result", "rebuild");
+    private static final Metrics.Counter NOT_MODIFIED = Metrics.counter("flighttracker_snapshot_requests_total",
+        "Full listing requests by how they were served", "result", "not_modified");
+    private static final Metrics.Histogram BUILD_DURATION = Metrics.histogram("flighttracker_snapshot_build_seconds",
+        "Time to serialize and compress the full listing");
+
+    private final FlightStateStore store;
+    private final AtomicLong version = new AtomicLong(1);
+    private volatile Snapshot current;
+
+    public FlightsSnapshotCache(FlightStateStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Marks the cached listing stale. Cheap enough to call on every write.
+     */
+    public void invalidate() {
+        version.incrementAndGet();
+    }
+
+    /**
+     * Returns the snapshot for the current version, rebuilding it if needed.
+     */
+    public Snapshot get() {
+        Snapshot snapshot = current;
+        if (snapshot != null && snapshot.version == version.get()) {
+            HITS.increment();
+            return snapshot;
+        }
+        synchronized (this) {
+            snapshot = current;
+            long target = version.get();
+            if (snapshot != null && snapshot.version == target) {
+                // Rebuilt by another request while this one waited
+                HITS.increment();
+            } else {
+                // Built against the version read before copying the store: a write
+                // that lands mid-build bumps the version again, so the next
+                // read rebuilds rather than serving stale data forever.
+                REBUILDS.increment();
+                long start = System.nanoTime();
+                snapshot = new Snapshot(target, buildJson());
+                current = snapshot;
+                BUILD_DURATION.recordSince(start);
+            }
+            return snapshot;
+        }
+    }
+
+    private byte[] buildJson() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * 1024);
+        try (JsonStreamWriter json = new JsonStreamWriter(bytes)) {
+            store.writeListing(json);
+        } catch (IOException e) {
+            throw new IllegalStateException("Writing to an in-memory buffer failed", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes the snapshot as a 200 response, or a bodiless 304 if the client
+     * already holds this version in the same encoding. The gzip encoding is
+     * used when accepted, and has its own ETag since its bytes differ.
+     */
+    public static void send(HttpExchange exchange, Snapshot snapshot) throws IOException {
+        Headers request = exchange.getRequestHeaders();
+        Headers response = exchange.getResponseHeaders();
+        String acceptEncoding = request.getFirst("Accept-Encoding");
+        boolean gzip = acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip");
+        String etag = gzip ? snapshot.getGzipETag() : snapshot.getETag();
+        response.set("ETag", etag);
+        response.set("Cache-Control", "no-cache");
+        response.set("Vary", "Accept-Encoding");
+
+        if (matches(request.getFirst("If-None-Match"), etag)) {
+            NOT_MODIFIED.increment();
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+
+        byte[] body = snapshot.getJson();
+        if (gzip) {
+            body = snapshot.getGzip();
+            response.set("Content-Encoding", "gzip");
+        }
+        response.set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            // If-None-Match compares weakly, so a tag a proxy marked weak still matches
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * One immutable version of the listing, pre-serialized and pre-compressed.
+     */
+    public static final class Snapshot {
+        private final long version;
+        private final byte[] json;
+        private final byte[] gzip;
+        private final String etag;
+        private final String gzipEtag;
+
+        Snapshot(long version, byte[] json) {
+            this.version = version;
+            this.json = json;
+            this.gzip = gzip(json);
+            // Versions restart with the process, so the start time keeps
+            // ETags from a previous run from matching.
+            String tag = Long.toHexString(STARTED_AT) + "-" + version;
+            this.etag = "\"" + tag + "\"";
+            this.gzipEtag = "\"" + tag + "-gz\"";
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public byte[] getJson() {
+            return json;
+        }
+
+        public byte[] getGzip() {
+            return gzip;
+        }
+
+        public String getETag() {
+            return etag;
+        }
+
+        public String getGzipETag() {
+            return gzipEtag;
+        }
+
+        private static byte[] gzip(byte[] data) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+            try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+                gz.write(data);
+            } catch (IOException e) {
+                throw new IllegalStateException("gzip of in-memory buffer failed", e);
+            }
+            return out.toByteArray();
+        }
+    }
+}
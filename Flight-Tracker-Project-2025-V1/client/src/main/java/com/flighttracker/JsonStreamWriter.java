@@ -0,0 +1,229 @@
+package com.flighttracker;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Minimal streaming JSON writer. Output is UTF-8 encoded by hand into a
+ * per-thread byte buffer that is flushed to the underlying stream whenever
+ * it fills, so serializing a large listing needs constant memory and no
+ * intermediate String. Commas between members and elements are inserted
+ * automatically.
+ */
+final class JsonStreamWriter implements Closeable {
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_DEPTH = 32;
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+    private static final ThreadLocal<byte[]> BUFFERS = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+    private static final ThreadLocal<Boolean> BUFFER_IN_USE = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+    private final OutputStream out;
+    private final byte[] buffer;
+    private final boolean pooledBuffer;
+    private final boolean[] hasElements = new boolean[MAX_DEPTH];
+    private int position;
+    private int depth;
+    private boolean afterName;
+
+    JsonStreamWriter(OutputStream out) {
+        this.out = out;
+        // Reuse the handler thread's buffer unless a writer on this thread
+        // already holds it
+        this.pooledBuffer = !BUFFER_IN_USE.get();
+        if (pooledBuffer) {
+            BUFFER_IN_USE.set(Boolean.TRUE);
+            this.buffer = BUFFERS.get();
+        } else {
+            this.buffer = new byte[BUFFER_SIZE];
+        }
+    }
+
+    JsonStreamWriter beginObject() throws IOException {
+        return open('{');
+    }
+
+    JsonStreamWriter endObject() throws IOException {
+        return close('}');
+    }
+
+    JsonStreamWriter beginArray() throws IOException {
+        return open('[');
+    }
+
+    JsonStreamWriter endArray() throws IOException {
+        return close(']');
+    }
+
+    JsonStreamWriter name(String name) throws IOException {
+        separate();
+        writeString(name);
+        writeByte(':');
+        afterName = true;
+        return this;
+    }
+
+    JsonStreamWriter value(String value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        separate();
+        writeString(value);
+        return this;
+    }
+
+    JsonStreamWriter value(long value) throws IOException {
+        separate();
+        writeAscii(Long.toString(value));
+        return this;
+    }
+
+    JsonStreamWriter value(double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return nullValue();
+        }
+        separate();
+        writeAscii(Double.toString(value));
+        return this;
+    }
+
+    JsonStreamWriter value(boolean value) throws IOException {
+        separate();
+        writeAscii(value ? "true" : "false");
+        return this;
+    }
+
+    JsonStreamWriter nullValue() throws IOException {
+        separate();
+        writeAscii("null");
+        return this;
+    }
+
+    void flush() throws IOException {
+        if (position > 0) {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+        out.flush();
+    }
+
+    /**
+     * Flushes remaining output, releases the buffer and closes the stream.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            if (pooledBuffer) {
+                BUFFER_IN_USE.set(Boolean.FALSE);
+            }
+            out.close();
+        }
+    }
+
+    private JsonStreamWriter open(char bracket) throws IOException {
+        separate();
+        if (depth == MAX_DEPTH) {
+            throw new IllegalStateException("JSON nested deeper than " + MAX_DEPTH);
+        }
+        writeByte(bracket);
+        hasElements[depth++] = false;
+        return this;
+    }
+
+    private JsonStreamWriter close(char bracket) throws IOException {
+        depth--;
+        writeByte(bracket);
+        return this;
+    }
+
+    private void separate() throws IOException {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (depth > 0) {
+            if (hasElements[depth - 1]) {
+                writeByte(',');
+            }
+            hasElements[depth - 1] = true;
+        }
+    }
+
+    private void writeString(String s) throws IOException {
+        writeByte('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                writeByte('\\');
+                writeByte(c);
+            } else if (c < 0x20) {
+                writeControl(c);
+            } else if (c < 0x80) {
+                writeByte(c);
+            } else if (c < 0x800) {
+                writeByte(0xC0 | (c >> 6));
+                writeByte(0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                       && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                writeByte(0xF0 | (codePoint >> 18));
+                writeByte(0x80 | ((codePoint >> 12) & 0x3F));
+                writeByte(0x80 | ((codePoint >> 6) & 0x3F));
+                writeByte(0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogate: not encodable, substitute U+FFFD
+                writeByte(0xEF);
+                writeByte(0xBF);
+                writeByte(0xBD);
+            } else {
+                writeByte(0xE0 | (c >> 12));
+                writeByte(0x80 | ((c >> 6) & 0x3F));
+                writeByte(0x80 | (c & 0x3F));
+            }
+        }
+        writeByte('"');
+    }
+
+    private void writeControl(char c) throws IOException {
+        writeByte('\\');
+        switch (c) {
+            case '\n':
+                writeByte('n');
+                break;
+            case '\r':
+                writeByte('r');
+                break;
+            case '\t':
+                writeByte('t');
+                break;
+            case '\b':
+                writeByte('b');
+                break;
+            case '\f':
+                writeByte('f');
+                break;
+            default:
+                writeByte('u');
+                writeByte('0');
+                writeByte('0');
+                writeByte(HEX[c >> 4]);
+                writeByte(HEX[c & 0xF]);
+        }
+    }
+
+    private void writeAscii(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            writeByte(s.charAt(i));
+        }
+    }
+
+    private void writeByte(int b) throws IOException {
+        if (position == buffer.length) {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+        buffer[position++] = (byte) b;
+    }
+}
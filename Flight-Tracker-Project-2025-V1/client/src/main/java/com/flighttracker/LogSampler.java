@@ -0,0 +1,41 @@
+package com.flighttracker;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Debug logging for per-item hot paths such as individual lookups. Nothing
+ * is built unless FINE is enabled for the logger, and then only every Nth
+ * call is logged, N being {@link #getSampleEvery} (initially
+ * {@code flighttracker.log.sampleEvery}, default 100). Both can be changed
+ * at runtime through /api/logging.
+ */
+public final class LogSampler {
+    private static volatile int sampleEvery = Math.max(1, Integer.getInteger("flighttracker.log.sampleEvery", 100));
+
+    private final Logger logger;
+    private final AtomicLong calls = new AtomicLong();
+
+    public LogSampler(Logger logger) {
+        this.logger = logger;
+    }
+
+    public static int getSampleEvery() {
+        return sampleEvery;
+    }
+
+    public static void setSampleEvery(int every) {
+        if (every < 1) {
+            throw new IllegalArgumentException("Sample rate must be at least 1");
+        }
+        sampleEvery = every;
+    }
+
+    public void log(Supplier<String> message) {
+        if (logger.isLoggable(Level.FINE) && calls.incrementAndGet() % sampleEvery == 0) {
+            logger.log(Level.FINE, message);
+        }
+    }
+}
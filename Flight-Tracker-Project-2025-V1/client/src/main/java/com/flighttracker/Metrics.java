@@ -0,0 +1,255 @@
+package com.flighttracker;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Process-wide metrics, exposed by /api/metrics in the Prometheus text
+ * format. Counters and histogram buckets are {@link LongAdder}s, so
+ * recording on a hot path is a few uncontended adds with no locking or
+ * allocation; only registration and scraping synchronize.
+ *
+ * <p>Metrics are registered once, typically into static fields, and looked
+ * up again by name and labels: registering the same series twice returns
+ * the existing counter or histogram, and replaces a gauge's supplier.
+ */
+public final class Metrics {
+    /** Latency bucket upper bounds in seconds, roughly three per decade. */
+    private static final double[] BUCKETS = {
+        0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05,
+        0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60
+    };
+    private static final long[] BUCKET_NANOS = new long[BUCKETS.length];
+
+    static {
+        for (int i = 0; i < BUCKETS.length; i++) {
+            BUCKET_NANOS[i] = (long) (BUCKETS[i] * TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+
+    private static final Map<String, Family> FAMILIES = new LinkedHashMap<>();
+
+    private Metrics() {
+    }
+
+    /**
+     * Returns the counter for a name and label pairs (name1, value1, ...).
+     */
+    public static Counter counter(String name, String help, String... labels) {
+        return (Counter) register(name, help, "counter", labels, Counter::new, false);
+    }
+
+    /**
+     * Returns the latency histogram for a name and label pairs. Names should
+     * end in _seconds.
+     */
+    public static Histogram histogram(String name, String help, String... labels) {
+        return (Histogram) register(name, help, "histogram", labels, Histogram::new, false);
+    }
+
+    /**
+     * Registers a gauge read from the supplier at scrape time.
+     */
+    public static void gauge(String name, String help, DoubleSupplier value, String... labels) {
+        register(name, help, "gauge", labels, () -> new Gauge(value), true);
+    }
+
+    /**
+     * Registers a counter kept elsewhere, read from the supplier at scrape time.
+     */
+    public static void functionCounter(String name, String help, LongSupplier value, String... labels) {
+        register(name, help, "counter", labels, () -> new Gauge(value::getAsLong), true);
+    }
+
+    /**
+     * Writes every registered series in the text exposition format.
+     */
+    public static String scrape() {
+        List<Family> families;
+        synchronized (FAMILIES) {
+            families = new ArrayList<>(FAMILIES.values());
+        }
+        StringBuilder out = new StringBuilder(8192);
+        for (Family family : families) {
+            out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+            List<Map.Entry<String, Sample>> series;
+            synchronized (FAMILIES) {
+                series = new ArrayList<>(family.series.entrySet());
+            }
+            for (Map.Entry<String, Sample> entry : series) {
+                entry.getValue().write(out, family.name, entry.getKey());
+            }
+        }
+        return out.toString();
+    }
+
+    private interface Sample {
+        void write(StringBuilder out, String name, String labels);
+    }
+
+    private interface SampleFactory {
+        Sample create();
+    }
+
+    private static Sample register(String name, String help, String type, String[] labels,
+                                   SampleFactory factory, boolean replace) {
+        String labelText = formatLabels(labels);
+        synchronized (FAMILIES) {
+            Family family = FAMILIES.computeIfAbsent(name, n -> new Family(n, help, type));
+            if (!family.type.equals(type)) {
+                throw new IllegalArgumentException(name + " is already registered as a " + family.type);
+            }
+            Sample sample = family.series.get(labelText);
+            if (sample == null || replace) {
+                sample = factory.create();
+                family.series.put(labelText, sample);
+            }
+            return sample;
+        }
+    }
+
+    private static String formatLabels(String[] labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name/value pairs");
+        }
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            text.append(i == 0 ? "" : ",").append(labels[i]).append("=\"");
+            for (char c : labels[i + 1].toCharArray()) {
+                if (c == '\\' || c == '"') {
+                    text.append('\\').append(c);
+                } else if (c == '\n') {
+                    text.append("\\n");
+                } else {
+                    text.append(c);
+                }
+            }
+            text.append('"');
+        }
+        return text.toString();
+    }
+
+    private static void appendSeries(StringBuilder out, String name, String labels, String extraLabel) {
+        out.append(name);
+        if (!labels.isEmpty() || extraLabel != null) {
+            out.append('{').append(labels);
+            if (extraLabel != null) {
+                out.append(labels.isEmpty() ? "" : ",").append(extraLabel);
+            }
+            out.append('}');
+        }
+        out.append(' ');
+    }
+
+    private static final class Family {
+        final String name;
+        final String help;
+        final String type;
+        final Map<String, Sample> series = new LinkedHashMap<>();
+
+        Family(String name, String help, String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    /**
+     * Monotonic count of events.
+     */
+    public static final class Counter implements Sample {
+        private final LongAdder count = new LongAdder();
+
+        public void increment() {
+            count.increment();
+        }
+
+        public void add(long amount) {
+            count.add(amount);
+        }
+
+        public long get() {
+            return count.sum();
+        }
+
+        @Override
+        public void write(StringBuilder out, String name, String labels) {
+            appendSeries(out, name, labels, null);
+            out.append(count.sum()).append('\n');
+        }
+    }
+
+    /**
+     * Distribution of durations over fixed exponential buckets. Buckets are
+     * stored non-cumulatively and summed at scrape time.
+     */
+    public static final class Histogram implements Sample {
+        private final LongAdder[] buckets = new LongAdder[BUCKETS.length + 1];
+        private final LongAdder sumNanos = new LongAdder();
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        public void recordNanos(long nanos) {
+            int bucket = 0;
+            while (bucket < BUCKET_NANOS.length && nanos > BUCKET_NANOS[bucket]) {
+                bucket++;
+            }
+            buckets[bucket].increment();
+            sumNanos.add(nanos);
+        }
+
+        /**
+         * Records the time elapsed since a {@link System#nanoTime} reading.
+         */
+        public void recordSince(long startNanos) {
+            recordNanos(System.nanoTime() - startNanos);
+        }
+
+        @Override
+        public void write(StringBuilder out, String name, String labels) {
+            long cumulative = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                cumulative += buckets[i].sum();
+                String le = i < BUCKETS.length ? BigDecimal.valueOf(BUCKETS[i]).stripTrailingZeros().toPlainString() : "+Inf";
+                appendSeries(out, name + "_bucket", labels, "le=\"" + le + "\"");
+                out.append(cumulative).append('\n');
+            }
+            appendSeries(out, name + "_sum", labels, null);
+            out.append(sumNanos.sum() / 1e9).append('\n');
+            appendSeries(out, name + "_count", labels, null);
+            out.append(cumulative).append('\n');
+        }
+    }
+
+    private static final class Gauge implements Sample {
+        private final DoubleSupplier value;
+
+        Gauge(DoubleSupplier value) {
+            this.value = value;
+        }
+
+        @Override
+        public void write(StringBuilder out, String name, String labels) {
+            appendSeries(out, name, labels, null);
+            double current = value.getAsDouble();
+            if (current == Math.rint(current) && Math.abs(current) < 1e15) {
+                out.append((long) current);
+            } else {
+                out.append(current);
+            }
+            out.append('\n');
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.flighttracker;
+
+import java.util.List;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * A message for one passenger, covering every event on their flight since
+ * the previous batch.
+ */
+public final class Notification {
+    private final int passengerId;
+    private final FlightKey flight;
+    private final List<FlightEvent> events;
+
+    public Notification(int passengerId, FlightKey flight, List<FlightEvent> events) {
+        this.passengerId = passengerId;
+        this.flight = flight;
+        this.events = events;
+    }
+
+    public int getPassengerId() {
+        return passengerId;
+    }
+
+    public FlightKey getFlight() {
+        return flight;
+    }
+
+    /** Oldest first; shared by every passenger on the flight. */
+    public List<FlightEvent> getEvents() {
+        return events;
+    }
+
+    public JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        json.put("passengerId", passengerId);
+        json.put("airline", flight.getAirline());
+        json.put("flightNumber", flight.getFlightNumber());
+        json.put("departureDate", flight.getDepartureDate());
+        JSONArray changes = new JSONArray();
+        events.forEach(event -> changes.put(event.toJson()));
+        json.put("events", changes);
+        return json;
+    }
+}
@@ -0,0 +1,167 @@
+package com.flighttracker;
+
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Notification stage fed by the {@link FlightEventBus}. Events are grouped
+ * by flight and every {@code flighttracker.notify.batchMillis} each pending
+ * flight yields one {@link Notification} per passenger, carrying all of its
+ * events, handed to the {@link NotificationSender} in batches. Passengers
+ * come from the tracker's in-memory flight map, so fan-out cost does not
+ * depend on the size of the database.
+ *
+ * <p>{@code flighttracker.notify.sender} picks the sender: {@code none}
+ * (the default) turns notifications off, {@code file} appends JSON lines to
+ * {@code flighttracker.notify.file}, which must then be set.
+ */
+public class NotificationDispatcher implements AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(NotificationDispatcher.class.getName());
+    private static final long BATCH_MILLIS = Long.getLong("flighttracker.notify.batchMillis", 1000);
+    private static final int MAX_BATCH = Integer.getInteger("flighttracker.notify.maxBatch", 1000);
+    private static final Metrics.Counter SENT = Metrics.counter("flighttracker_notifications_sent_total",
+        "Passenger notifications delivered");
+    private static final Metrics.Counter FAILED = Metrics.counter("flighttracker_notifications_failed_total",
+        "Passenger notifications dropped after a failed send");
+    private static final Metrics.Histogram DELAY = Metrics.histogram("flighttracker_notification_delay_seconds",
+        "Time from detecting a flight event to sending its notifications");
+
+    private final NotificationSender sender;
+    private final Function<FlightKey, List<Integer>> passengers;
+    private final ScheduledExecutorService executor;
+    private Map<FlightKey, List<FlightEvent>> pending = new LinkedHashMap<>();
+
+    /**
+     * Creates the sender chosen by system properties, or returns null if
+     * notifications are turned off.
+     */
+    public static NotificationSender configuredSender() {
+        String type = System.getProperty("flighttracker.notify.sender", "none");
+        switch (type) {
+            case "none":
+                return null;
+            case "file":
+                String file = System.getProperty("flighttracker.notify.file");
+                if (file == null) {
+                    throw new IllegalArgumentException("flighttracker.notify.file is required for the file sender");
+                }
+                return new FileNotificationSender(Paths.get(file));
+            default:
+                throw new IllegalArgumentException("Unknown notification sender: " + type);
+        }
+    }
+
+    /**
+     * @param passengers the ids of the passengers on a flight, or null if it
+     *                   is no longer tracked
+     */
+    public NotificationDispatcher(NotificationSender sender, Function<FlightKey, List<Integer>> passengers) {
+        this.sender = sender;
+        this.passengers = passengers;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "notification-dispatcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::flushQuietly, BATCH_MILLIS, BATCH_MILLIS, TimeUnit.MILLISECONDS);
+        Metrics.gauge("flighttracker_notification_pending_flights", "Flights with events waiting to be sent",
+            this::getPendingFlights);
+    }
+
+    /**
+     * Bus listener: queues the event for the next batch.
+     */
+    public synchronized void accept(FlightEvent event) {
+        pending.computeIfAbsent(event.getFlight(), k -> new ArrayList<>(2)).add(event);
+    }
+
+    public synchronized int getPendingFlights() {
+        return pending.size();
+    }
+
+    /**
+     * Sends what is pending and stops the dispatcher thread.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(BATCH_MILLIS * 2, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushQuietly();
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            // Keeps the periodic task alive
+            LOGGER.log(Level.WARNING, "Error dispatching notifications", e);
+        }
+    }
+
+    private synchronized Map<FlightKey, List<FlightEvent>> takePending() {
+        Map<FlightKey, List<FlightEvent>> taken = pending;
+        pending = new LinkedHashMap<>();
+        return taken;
+    }
+
+    private void flush() {
+        Map<FlightKey, List<FlightEvent>> events = takePending();
+        if (events.isEmpty()) {
+            return;
+        }
+        Instant oldest = Instant.MAX;
+        List<Notification> batch = new ArrayList<>();
+        for (Map.Entry<FlightKey, List<FlightEvent>> flight : events.entrySet()) {
+            List<Integer> passengerIds = passengers.apply(flight.getKey());
+            if (passengerIds == null) {
+                continue;
+            }
+            List<FlightEvent> flightEvents = Collections.unmodifiableList(flight.getValue());
+            for (FlightEvent event : flightEvents) {
+                if (event.getDetectedAt().isBefore(oldest)) {
+                    oldest = event.getDetectedAt();
+                }
+            }
+            for (int passengerId : passengerIds) {
+                batch.add(new Notification(passengerId, flight.getKey(), flightEvents));
+                if (batch.size() >= MAX_BATCH) {
+                    send(batch);
+                    batch = new ArrayList<>();
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            send(batch);
+        }
+        if (!oldest.equals(Instant.MAX)) {
+            DELAY.recordNanos(Duration.between(oldest, Instant.now()).toNanos());
+        }
+        LOGGER.fine(() -> "Dispatched notifications for " + events.size() + " flights");
+    }
+
+    private void send(List<Notification> batch) {
+        try {
+            sender.send(batch);
+            SENT.add(batch.size());
+        } catch (Exception e) {
+            FAILED.add(batch.size());
+            LOGGER.log(Level.WARNING, "Failed to send " + batch.size() + " notifications", e);
+        }
+    }
+}
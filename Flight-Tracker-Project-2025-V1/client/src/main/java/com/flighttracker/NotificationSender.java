@@ -0,0 +1,16 @@
+package com.flighttracker;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Delivers passenger notifications, e.g. by email or SMS. Called from a
+ * single dispatcher thread with one batch at a time.
+ */
+public interface NotificationSender {
+
+    /**
+     * Delivers a batch. A failure drops the batch; it is not retried.
+     */
+    void send(List<Notification> batch) throws IOException;
+}
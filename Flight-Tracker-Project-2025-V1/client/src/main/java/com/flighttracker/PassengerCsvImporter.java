@@ -0,0 +1,488 @@
+package com.flighttracker;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Streams a passenger manifest into the passengers table. Rows are parsed as
+ * they are read, checked against the header mapping, and inserted through
+ * a cached PreparedStatement in explicit transactions of {@code batchSize}
+ * rows. The writer connection is only held while a batch is being written,
+ * so flight updates can interleave with a long import.
+ */
+public class PassengerCsvImporter {
+    private static final Logger LOGGER = Logger.getLogger(PassengerCsvImporter.class.getName());
+    private static final int MAX_LOGGED_REJECTIONS = 10;
+    private static final Metrics.Counter ROWS_ACCEPTED = Metrics.counter("flighttracker_ingest_rows_total",
+        "CSV rows processed by result", "result", "accepted");
+    private static final Metrics.Counter ROWS_REJECTED = Metrics.counter("flighttracker_ingest_rows_total",
+        "CSV rows processed by result", "result", "rejected");
+    private static final Metrics.Counter ROWS_DUPLICATE = Metrics.counter("flighttracker_ingest_rows_total",
+        "CSV rows processed by result", "result", "duplicate");
+    private static final Metrics.Histogram IMPORT_DURATION = Metrics.histogram("flighttracker_ingest_seconds",
+        "Duration of CSV imports");
+    private static final Metrics.Histogram BATCH_DURATION = Metrics.histogram("flighttracker_ingest_batch_seconds",
+        "Time to insert one batch of CSV rows, including waiting for the writer");
+    private static volatile double lastRowsPerSecond;
+
+    static {
+        Metrics.gauge("flighttracker_ingest_last_rows_per_second",
+            "Throughput of the most recent CSV import", () -> lastRowsPerSecond);
+    }
+
+    static final String[] REQUIRED_HEADERS = {
+        "Name", "Airline", "Flight Number", "Departure Airport", "Arrival Airport", "Departure Date"
+    };
+
+    /** Passengers already on file under the same natural key are skipped. */
+    private static final String INSERT_SQL =
+        "INSERT INTO passengers (name, airline, flight_number, departure_airport, arrival_airport, departure_date) " +
+        "VALUES (?, ?, ?, ?, ?, ?) ON CONFLICT (name, flight_number, departure_date) DO NOTHING";
+
+    private static final String UPSERT_SQL =
+        "INSERT INTO passengers (name, airline, flight_number, departure_airport, arrival_airport, departure_date) " +
+        "VALUES (?, ?, ?, ?, ?, ?) ON CONFLICT (name, flight_number, departure_date) DO UPDATE SET " +
+        "airline = excluded.airline, departure_airport = excluded.departure_airport, " +
+        "arrival_airport = excluded.arrival_airport";
+
+    private final Database database;
+    private final int batchSize;
+    private final ReportRollups reports;
+
+    public PassengerCsvImporter(Database database, int batchSize, ReportRollups reports) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        }
+        this.database = database;
+        this.batchSize = batchSize;
+        this.reports = reports;
+    }
+
+    /**
+     * Imports every valid row from the reader. Rows with missing fields or an
+     * unparseable departure date are counted as rejected and skipped, and
+     * passengers already on file are counted as duplicates.
+     *
+     * @throws IllegalArgumentException if the header row is missing or lacks
+     *         a required column
+     */
+    public ImportResult importCsv(Reader source) throws IOException, SQLException {
+        long start = System.nanoTime();
+        BufferedReader reader = source instanceof BufferedReader
+            ? (BufferedReader) source : new BufferedReader(source, 64 * 1024);
+
+        String headerLine = reader.readLine();
+        if (headerLine == null) {
+            throw new IllegalArgumentException("CSV file is empty");
+        }
+        int[] columns = mapHeaders(splitLine(stripBom(headerLine)));
+
+        int accepted = 0;
+        int rejected = 0;
+        int duplicates = 0;
+        int lineNumber = 1;
+        List<String[]> batch = new ArrayList<>(batchSize);
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+
+            String[] row = parseRow(line, columns);
+            if (row == null) {
+                rejected++;
+                if (rejected <= MAX_LOGGED_REJECTIONS) {
+                    LOGGER.warning("Rejected CSV line " + lineNumber + ": " + line);
+                }
+                continue;
+            }
+
+            batch.add(row);
+            accepted++;
+            if (batch.size() == batchSize) {
+                duplicates += batch.size() - insertBatch(batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            duplicates += batch.size() - insertBatch(batch);
+        }
+
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        ImportResult result = new ImportResult(accepted - duplicates, rejected, duplicates, elapsedMillis);
+        IMPORT_DURATION.recordSince(start);
+        recordRows(result.getAccepted(), rejected, duplicates);
+        lastRowsPerSecond = result.getRowsPerSecond();
+        LOGGER.info("Imported " + result);
+        return result;
+    }
+
+    /**
+     * Inserts the rows in one transaction, together with their report
+     * counts.
+     *
+     * @return the number of rows inserted, i.e. not already on file
+     */
+    int insertBatch(List<String[]> rows) throws SQLException {
+        long start = System.nanoTime();
+        int[] inserted = new int[1];
+        try (Database.Handle db = database.writer()) {
+            PreparedStatement insert = db.prepare(INSERT_SQL);
+            db.inTransaction(() -> {
+                for (String[] row : rows) {
+                    bind(insert, row);
+                    insert.addBatch();
+                }
+                int[] counts = insert.executeBatch();
+                Map<ReportRollups.RouteDay, Integer> added = new HashMap<>();
+                for (int i = 0; i < counts.length; i++) {
+                    if (counts[i] > 0) {
+                        inserted[0]++;
+                        ReportRollups.count(added, rows.get(i), 1);
+                    }
+                }
+                reports.addPassengers(db, added);
+            });
+        }
+        BATCH_DURATION.recordSince(start);
+        return inserted[0];
+    }
+
+    /**
+     * Makes the passengers table match a manifest: rows with a new natural
+     * key are inserted, rows whose airline or airports changed are updated
+     * in place (keeping their id and status history), and with
+     * {@code removeAbsent} every passenger not in the manifest is deleted.
+     * The stored rows are read and the changed ones written in a single
+     * writer transaction, so the diff and the report counts cannot be based
+     * on rows that another import or a clear has since changed. Updates and
+     * removals bump manifest_version in the same transaction, so every
+     * instance's {@link FlightStateStore#sync} reloads.
+     *
+     * @param rows valid rows with distinct natural keys
+     * @throws IllegalArgumentException if asked to remove absent passengers
+     *         for an empty manifest
+     */
+    DiffResult applyDiff(List<String[]> rows, boolean removeAbsent) throws SQLException {
+        if (removeAbsent && rows.isEmpty()) {
+            throw new IllegalArgumentException("Refusing to remove every passenger for a manifest with no valid rows");
+        }
+        long start = System.nanoTime();
+        int[] inserted = new int[1];
+        int[] updated = new int[1];
+        List<Integer> removed = new ArrayList<>();
+        try (Database.Handle db = database.writer()) {
+            PreparedStatement select = db.prepare(
+                "SELECT id, name, airline, flight_number, departure_airport, arrival_airport, departure_date " +
+                "FROM passengers");
+            PreparedStatement upsert = db.prepare(UPSERT_SQL);
+            PreparedStatement deleteLatest = db.prepare("DELETE FROM flight_status_latest WHERE passenger_id = ?");
+            PreparedStatement deleteHistory = db.prepare("DELETE FROM flight_status WHERE passenger_id = ?");
+            PreparedStatement deletePassenger = db.prepare("DELETE FROM passengers WHERE id = ?");
+            PreparedStatement bumpVersion = db.prepare("UPDATE manifest_version SET version = version + 1");
+            db.inTransaction(() -> {
+                Map<String, StoredPassenger> stored = new HashMap<>();
+                try (ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        String[] row = new String[REQUIRED_HEADERS.length];
+                        for (int i = 0; i < row.length; i++) {
+                            row[i] = rs.getString(i + 2);
+                        }
+                        stored.put(naturalKey(row), new StoredPassenger(rs.getInt(1), row));
+                    }
+                }
+
+                List<String[]> changed = new ArrayList<>();
+                Map<ReportRollups.RouteDay, Integer> counts = new HashMap<>();
+                for (String[] row : rows) {
+                    StoredPassenger existing = stored.remove(naturalKey(row));
+                    if (existing == null) {
+                        inserted[0]++;
+                        changed.add(row);
+                        ReportRollups.count(counts, row, 1);
+                    } else if (!Arrays.equals(existing.row, row)) {
+                        updated[0]++;
+                        changed.add(row);
+                        ReportRollups.count(counts, existing.row, -1);
+                        ReportRollups.count(counts, row, 1);
+                    }
+                }
+                if (removeAbsent) {
+                    for (StoredPassenger passenger : stored.values()) {
+                        removed.add(passenger.id);
+                        ReportRollups.count(counts, passenger.row, -1);
+                    }
+                }
+                if (changed.isEmpty() && removed.isEmpty()) {
+                    return;
+                }
+
+                for (String[] row : changed) {
+                    bind(upsert, row);
+                    upsert.addBatch();
+                }
+                upsert.executeBatch();
+                for (int id : removed) {
+                    for (PreparedStatement delete : new PreparedStatement[] {deleteLatest, deleteHistory, deletePassenger}) {
+                        delete.setInt(1, id);
+                        delete.addBatch();
+                    }
+                }
+                deleteLatest.executeBatch();
+                deleteHistory.executeBatch();
+                deletePassenger.executeBatch();
+                if (updated[0] > 0 || !removed.isEmpty()) {
+                    bumpVersion.executeUpdate();
+                }
+                reports.addPassengers(db, counts);
+            });
+        }
+        BATCH_DURATION.recordSince(start);
+        return new DiffResult(inserted[0], updated[0], rows.size() - inserted[0] - updated[0], removed.size());
+    }
+
+    /** Name, flight number and departure date, as in idx_passengers_natural_key. */
+    static String naturalKey(String[] row) {
+        return row[0] + '\u0000' + row[2] + '\u0000' + row[5];
+    }
+
+    private static void bind(PreparedStatement stmt, String[] row) throws SQLException {
+        for (int i = 0; i < row.length; i++) {
+            stmt.setString(i + 1, row[i]);
+        }
+    }
+
+    /**
+     * Returns whether a file with this content hash has already been imported.
+     */
+    boolean isImported(String sha256) throws SQLException {
+        try (Database.Handle db = database.reader()) {
+            PreparedStatement stmt = db.prepare("SELECT 1 FROM imported_files WHERE sha256 = ?");
+            stmt.setString(1, sha256);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    void recordImported(String sha256, String fileName, ImportResult result) throws SQLException {
+        try (Database.Handle db = database.writer()) {
+            PreparedStatement stmt = db.prepare(
+                "INSERT OR REPLACE INTO imported_files (sha256, file_name, rows_inserted) VALUES (?, ?, ?)");
+            stmt.setString(1, sha256);
+            stmt.setString(2, fileName);
+            stmt.setInt(3, result.getAccepted());
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Hex SHA-256 of a file's contents.
+     */
+    static String sha256(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        StringBuilder hex = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    static void recordRows(long accepted, long rejected, long duplicates) {
+        ROWS_ACCEPTED.add(accepted);
+        ROWS_REJECTED.add(rejected);
+        ROWS_DUPLICATE.add(duplicates);
+    }
+
+    /**
+     * Returns the column index of each required header, in REQUIRED_HEADERS order.
+     */
+    static int[] mapHeaders(List<String> headers) {
+        int[] columns = new int[REQUIRED_HEADERS.length];
+        for (int i = 0; i < REQUIRED_HEADERS.length; i++) {
+            columns[i] = -1;
+            for (int j = 0; j < headers.size(); j++) {
+                if (headers.get(j).trim().equalsIgnoreCase(REQUIRED_HEADERS[i])) {
+                    columns[i] = j;
+                    break;
+                }
+            }
+            if (columns[i] < 0) {
+                throw new IllegalArgumentException("CSV is missing required header: " + REQUIRED_HEADERS[i]);
+            }
+        }
+        LOGGER.info("CSV headers found: " + headers);
+        return columns;
+    }
+
+    /**
+     * Picks the required fields out of a data line, or returns null if the
+     * line does not hold a valid passenger.
+     */
+    private static String[] parseRow(String line, int[] columns) {
+        return toRow(splitLine(line), columns);
+    }
+
+    /**
+     * Picks the required fields out of an already split line, or returns
+     * null if they do not make a valid passenger.
+     */
+    static String[] toRow(List<String> fields, int[] columns) {
+        String[] row = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i] >= fields.size()) {
+                return null;
+            }
+            String value = fields.get(columns[i]).trim();
+            if (value.isEmpty()) {
+                return null;
+            }
+            row[i] = value;
+        }
+        try {
+            LocalDate.parse(row[5]);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+        return row;
+    }
+
+    /**
+     * Splits one CSV line, honouring double-quoted fields.
+     */
+    static List<String> splitLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    static String stripBom(String line) {
+        return !line.isEmpty() && line.charAt(0) == '\uFEFF' ? line.substring(1) : line;
+    }
+
+    /**
+     * Outcome of one import.
+     */
+    public static final class ImportResult {
+        private final int accepted;
+        private final int rejected;
+        private final int duplicates;
+        private final long durationMillis;
+
+        ImportResult(int accepted, int rejected, int duplicates, long durationMillis) {
+            this.accepted = accepted;
+            this.rejected = rejected;
+            this.duplicates = duplicates;
+            this.durationMillis = durationMillis;
+        }
+
+        public int getAccepted() {
+            return accepted;
+        }
+
+        public int getRejected() {
+            return rejected;
+        }
+
+        public int getDuplicates() {
+            return duplicates;
+        }
+
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        public long getRowsPerSecond() {
+            return durationMillis == 0 ? accepted : accepted * 1000L / durationMillis;
+        }
+
+        @Override
+        public String toString() {
+            return accepted + " passengers (" + rejected + " rejected, " + duplicates + " already on file) in "
+                + durationMillis + " ms, " + getRowsPerSecond() + " rows/s";
+        }
+    }
+
+    /**
+     * Outcome of {@link #applyDiff}.
+     */
+    static final class DiffResult {
+        final int inserted;
+        final int updated;
+        final int unchanged;
+        final int removed;
+
+        DiffResult(int inserted, int updated, int unchanged, int removed) {
+            this.inserted = inserted;
+            this.updated = updated;
+            this.unchanged = unchanged;
+            this.removed = removed;
+        }
+    }
+
+    private static final class StoredPassenger {
+        final int id;
+        final String[] row;
+
+        StoredPassenger(int id, String[] row) {
+            this.id = id;
+            this.row = row;
+        }
+    }
+}
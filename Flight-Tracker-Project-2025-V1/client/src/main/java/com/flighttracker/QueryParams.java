@@ -0,0 +1,77 @@
+package com.flighttracker;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Parses URL query strings for the com.sun.net.httpserver handlers, which
+ * only expose the raw query.
+ */
+final class QueryParams {
+
+    private QueryParams() {
+    }
+
+    /**
+     * Decodes a raw query string into name/value pairs. Repeated names keep
+     * their first value; a missing value decodes as an empty string.
+     */
+    static Map<String, String> parse(String rawQuery) {
+        Map<String, String> params = new LinkedHashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return params;
+        }
+        for (String pair : rawQuery.split("&")) {
+            if (pair.isEmpty()) {
+                continue;
+            }
+            int eq = pair.indexOf('=');
+            String name = decode(eq < 0 ? pair : pair.substring(0, eq));
+            String value = eq < 0 ? "" : decode(pair.substring(eq + 1));
+            params.putIfAbsent(name, value);
+        }
+        return params;
+    }
+
+    static int getInt(Map<String, String> params, String name, int defaultValue) {
+        String value = params.get(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid integer for " + name + ": " + value);
+        }
+    }
+
+    static long getLong(Map<String, String> params, String name, long defaultValue) {
+        String value = params.get(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid integer for " + name + ": " + value);
+        }
+    }
+
+    static double getDouble(Map<String, String> params, String name) {
+        String value = params.get(name);
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("Missing parameter: " + name);
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number for " + name + ": " + value);
+        }
+    }
+
+    private static String decode(String value) {
+        return URLDecoder.decode(value, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,36 @@
+package com.flighttracker;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spaces out permits evenly so that callers never exceed a fixed number of
+ * requests per second, regardless of how many threads share the limiter.
+ */
+public class RateLimiter {
+    private final long intervalNanos;
+    private long nextFreeNanos;
+
+    public RateLimiter(double permitsPerSecond) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("permitsPerSecond must be positive: " + permitsPerSecond);
+        }
+        this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+        this.nextFreeNanos = System.nanoTime();
+    }
+
+    /**
+     * Blocks until the caller may issue one request.
+     */
+    public void acquire() throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            long slot = Math.max(now, nextFreeNanos);
+            nextFreeNanos = slot + intervalNanos;
+            waitNanos = slot - now;
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+}
@@ -0,0 +1,594 @@
+package com.flighttracker;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Operational report figures kept up to date as data arrives, so reports
+ * read a few small tables instead of scanning passengers and history:
+ * <ul>
+ *   <li>report_passengers: passengers per departure date, airline and route,
+ *       adjusted by CSV imports in the same transaction as the rows;</li>
+ *   <li>report_flights: per flight, the latest status, whether it was ever
+ *       delayed and when it first went airborne and landed;</li>
+ *   <li>report_daily: flights, on-time, delayed, cancelled and landed counts
+ *       and airborne time per departure date and airline;</li>
+ *   <li>report_status: flights per current status.</li>
+ * </ul>
+ * The last three are adjusted by the status writer for each status it
+ * commits. A flight counts as on time once it lands without ever having
+ * reported "delayed".
+ *
+ * <p>{@link #rebuild} recomputes everything from passengers and
+ * flight_track, reading in parallel chunks, for backfills and after
+ * upgrading a database that predates the rollups. Compaction thins and
+ * expires the track, so a flight whose raw history is gone keeps the
+ * report_flights row it already has.
+ */
+public class ReportRollups {
+    private static final Logger LOGGER = Logger.getLogger(ReportRollups.class.getName());
+    static final int REBUILD_THREADS = Integer.getInteger("flighttracker.reports.rebuildThreads", 4);
+    private static final int PASSENGER_CHUNK = 50000;
+    private static final int FLIGHT_CHUNK = 1000;
+    private static final String[] TABLES = {"report_passengers", "report_flights", "report_daily", "report_status"};
+    private static final Metrics.Histogram REBUILD_DURATION = Metrics.histogram("flighttracker_report_rebuild_seconds",
+        "Time to recompute the report rollups from history");
+
+    private final Database database;
+
+    public ReportRollups(Database database) {
+        this.database = database;
+    }
+
+    static String[] tables() {
+        return TABLES.clone();
+    }
+
+    /**
+     * Adds {@code delta} for the passenger row's date, airline and route.
+     */
+    static void count(Map<RouteDay, Integer> counts, String[] row, int delta) {
+        counts.merge(new RouteDay(row[5], row[1], row[3], row[4]), delta, Integer::sum);
+    }
+
+    /**
+     * Applies passenger count changes gathered with {@link #count}. Must be
+     * called with the writer, inside the transaction that changed the rows.
+     */
+    void addPassengers(Database.Handle db, Map<RouteDay, Integer> counts) throws SQLException {
+        PreparedStatement add = db.prepare(
+            "INSERT INTO report_passengers (departure_date, airline, departure_airport, arrival_airport, passengers) " +
+            "VALUES (?, ?, ?, ?, ?) ON CONFLICT (departure_date, airline, departure_airport, arrival_airport) " +
+            "DO UPDATE SET passengers = passengers + excluded.passengers");
+        for (Map.Entry<RouteDay, Integer> count : counts.entrySet()) {
+            if (count.getValue() == 0) {
+                continue;
+            }
+            RouteDay group = count.getKey();
+            add.setString(1, group.date);
+            add.setString(2, group.airline);
+            add.setString(3, group.from);
+            add.setString(4, group.to);
+            add.setInt(5, count.getValue());
+            add.addBatch();
+        }
+        add.executeBatch();
+    }
+
+    /**
+     * Folds one committed status into the flight's summary and the daily and
+     * status totals. Must be called with the writer, inside the transaction
+     * that records the status.
+     */
+    void recordStatus(Database.Handle db, int flightId, FlightKey flight, long epochSeconds, String status)
+            throws SQLException {
+        PreparedStatement select = db.prepare(
+            "SELECT status, delayed, departed_at, landed_at FROM report_flights WHERE flight_id = ?");
+        select.setInt(1, flightId);
+        FlightSummary before = null;
+        try (ResultSet rs = select.executeQuery()) {
+            if (rs.next()) {
+                before = new FlightSummary(rs.getString(1), rs.getInt(2) != 0, rs.getLong(3), rs.getLong(4));
+            }
+        }
+        FlightSummary after = FlightSummary.next(before, status, epochSeconds);
+        if (after.equals(before)) {
+            return;
+        }
+
+        PreparedStatement upsert = db.prepare(
+            "INSERT OR REPLACE INTO report_flights (flight_id, status, delayed, departed_at, landed_at) " +
+            "VALUES (?, ?, ?, ?, ?)");
+        upsert.setInt(1, flightId);
+        upsert.setString(2, after.status);
+        upsert.setInt(3, after.delayed ? 1 : 0);
+        upsert.setLong(4, after.departedAt);
+        upsert.setLong(5, after.landedAt);
+        upsert.executeUpdate();
+
+        long[] totals = after.totals();
+        if (before != null) {
+            long[] previous = before.totals();
+            for (int i = 0; i < totals.length; i++) {
+                totals[i] -= previous[i];
+            }
+        }
+        addDaily(db, flight.getDepartureDate(), flight.getAirline(), totals);
+        if (before == null || !before.status.equals(after.status)) {
+            addStatus(db, after.status, 1);
+            if (before != null) {
+                addStatus(db, before.status, -1);
+            }
+        }
+    }
+
+    private static void addDaily(Database.Handle db, String date, String airline, long[] totals) throws SQLException {
+        PreparedStatement add = db.prepare(
+            "INSERT INTO report_daily (departure_date, airline, flights, on_time, delayed, cancelled, landed, " +
+            "airborne_seconds, airborne_flights) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?) " +
+            "ON CONFLICT (departure_date, airline) DO UPDATE SET " +
+            "flights = flights + excluded.flights, on_time = on_time + excluded.on_time, " +
+            "delayed = delayed + excluded.delayed, cancelled = cancelled + excluded.cancelled, " +
+            "landed = landed + excluded.landed, airborne_seconds = airborne_seconds + excluded.airborne_seconds, " +
+            "airborne_flights = airborne_flights + excluded.airborne_flights");
+        add.setString(1, date);
+        add.setString(2, airline);
+        for (int i = 0; i < totals.length; i++) {
+            add.setLong(i + 3, totals[i]);
+        }
+        add.executeUpdate();
+    }
+
+    private static void addStatus(Database.Handle db, String status, long flights) throws SQLException {
+        PreparedStatement add = db.prepare(
+            "INSERT INTO report_status (status, flights) VALUES (?, ?) " +
+            "ON CONFLICT (status) DO UPDATE SET flights = flights + excluded.flights");
+        add.setString(1, status);
+        add.setLong(2, flights);
+        add.executeUpdate();
+    }
+
+    /**
+     * Passengers grouped by {@code airline}, {@code route} or {@code day}.
+     */
+    public JSONObject passengers(String by) throws SQLException {
+        String columns;
+        switch (by) {
+            case "airline":
+                columns = "airline";
+                break;
+            case "route":
+                columns = "departure_airport, arrival_airport";
+                break;
+            case "day":
+                columns = "departure_date";
+                break;
+            default:
+                throw new IllegalArgumentException("by must be airline, route or day");
+        }
+        JSONArray rows = new JSONArray();
+        try (Database.Handle db = database.reader()) {
+            PreparedStatement query = db.prepare("SELECT " + columns + ", SUM(passengers) FROM report_passengers " +
+                "GROUP BY " + columns + " HAVING SUM(passengers) > 0 ORDER BY " + columns);
+            try (ResultSet rs = query.executeQuery()) {
+                while (rs.next()) {
+                    JSONObject row = new JSONObject();
+                    if ("route".equals(by)) {
+                        row.put("departureAirport", rs.getString(1));
+                        row.put("arrivalAirport", rs.getString(2));
+                        row.put("passengers", rs.getLong(3));
+                    } else {
+                        row.put("day".equals(by) ? "departureDate" : "airline", rs.getString(1));
+                        row.put("passengers", rs.getLong(2));
+                    }
+                    rows.put(row);
+                }
+            }
+        }
+        return new JSONObject().put("by", by).put("rows", rows);
+    }
+
+    /**
+     * Punctuality and airborne time grouped by {@code day} or {@code airline}.
+     */
+    public JSONObject flights(String by) throws SQLException {
+        String column;
+        if ("day".equals(by)) {
+            column = "departure_date";
+        } else if ("airline".equals(by)) {
+            column = "airline";
+        } else {
+            throw new IllegalArgumentException("by must be day or airline");
+        }
+        JSONArray rows = new JSONArray();
+        try (Database.Handle db = database.reader()) {
+            PreparedStatement query = db.prepare(
+                "SELECT " + column + ", SUM(flights), SUM(on_time), SUM(delayed), SUM(cancelled), SUM(landed), " +
+                "SUM(airborne_seconds), SUM(airborne_flights) FROM report_daily " +
+                "GROUP BY " + column + " HAVING SUM(flights) > 0 ORDER BY " + column);
+            try (ResultSet rs = query.executeQuery()) {
+                while (rs.next()) {
+                    JSONObject row = new JSONObject();
+                    row.put("day".equals(by) ? "departureDate" : "airline", rs.getString(1));
+                    row.put("flights", rs.getLong(2));
+                    row.put("onTime", rs.getLong(3));
+                    row.put("delayed", rs.getLong(4));
+                    row.put("cancelled", rs.getLong(5));
+                    row.put("landed", rs.getLong(6));
+                    long airborneFlights = rs.getLong(8);
+                    if (airborneFlights > 0) {
+                        row.put("avgAirborneMinutes", Math.round(rs.getLong(7) / 6.0 / airborneFlights) / 10.0);
+                    }
+                    rows.put(row);
+                }
+            }
+        }
+        return new JSONObject().put("by", by).put("rows", rows);
+    }
+
+    /**
+     * Flights per latest reported status.
+     */
+    public JSONObject statuses() throws SQLException {
+        JSONArray rows = new JSONArray();
+        try (Database.Handle db = database.reader()) {
+            PreparedStatement query = db.prepare(
+                "SELECT status, flights FROM report_status WHERE flights > 0 ORDER BY flights DESC, status");
+            try (ResultSet rs = query.executeQuery()) {
+                while (rs.next()) {
+                    rows.put(new JSONObject().put("status", rs.getString(1)).put("flights", rs.getLong(2)));
+                }
+            }
+        }
+        return new JSONObject().put("rows", rows);
+    }
+
+    /**
+     * Recomputes every rollup from passengers and flight_track. The writer
+     * is held throughout so no status or import lands between the reads and
+     * the replacement; the reads themselves run in parallel chunks on
+     * reader connections, which see the last committed state.
+     *
+     * <p>Only flights whose track is still entirely raw are replayed. A
+     * flight with downsampled or expired points keeps its existing
+     * report_flights summary, which was built from every status as it
+     * arrived; replaying the thinned track would shift or drop statuses.
+     * Such a flight is replayed from what is left only if it has no summary
+     * yet, as in a database that predates the rollups.
+     */
+    public RebuildResult rebuild(int threads) throws SQLException, InterruptedException {
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+            Thread thread = new Thread(runnable, "report-rebuild");
+            thread.setDaemon(true);
+            return thread;
+        });
+        RebuildResult[] result = new RebuildResult[1];
+        try (Database.Handle db = database.writer()) {
+            db.inTransaction(() -> {
+                try (Statement stmt = db.connection().createStatement()) {
+                    for (String table : TABLES) {
+                        stmt.executeUpdate("DELETE FROM " + table);
+                    }
+                }
+                try {
+                    result[0] = rebuildFrom(db, pool);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Report rebuild interrupted", e);
+                }
+            });
+        } finally {
+            pool.shutdownNow();
+        }
+        REBUILD_DURATION.recordSince(start);
+        result[0].durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        LOGGER.info("Rebuilt reports: " + result[0]);
+        return result[0];
+    }
+
+    private RebuildResult rebuildFrom(Database.Handle db, ExecutorService pool) throws SQLException, InterruptedException {
+        List<Future<Map<RouteDay, Integer>>> passengerChunks = new ArrayList<>();
+        long[] passengerIds = idRange(db, "passengers");
+        for (long low = passengerIds[0]; low <= passengerIds[1]; low += PASSENGER_CHUNK) {
+            long from = low;
+            passengerChunks.add(pool.submit(() -> countPassengers(from, from + PASSENGER_CHUNK - 1)));
+        }
+        List<Future<Map<Integer, FlightChunkRow>>> flightChunks = new ArrayList<>();
+        long[] flightIds = idRange(db, "flights");
+        for (long low = flightIds[0]; low <= flightIds[1]; low += FLIGHT_CHUNK) {
+            long from = low;
+            flightChunks.add(pool.submit(() -> summarizeFlights(from, from + FLIGHT_CHUNK - 1)));
+        }
+
+        Map<RouteDay, Integer> passengers = new HashMap<>();
+        for (Future<Map<RouteDay, Integer>> chunk : passengerChunks) {
+            await(chunk).forEach((group, count) -> passengers.merge(group, count, Integer::sum));
+        }
+        addPassengers(db, passengers);
+
+        RebuildResult result = new RebuildResult();
+        result.passengerChunks = passengerChunks.size();
+        result.flightChunks = flightChunks.size();
+        // Departure date, then airline
+        Map<String, Map<String, long[]>> daily = new HashMap<>();
+        Map<String, Long> statuses = new HashMap<>();
+        PreparedStatement insert = db.prepare(
+            "INSERT INTO report_flights (flight_id, status, delayed, departed_at, landed_at) VALUES (?, ?, ?, ?, ?)");
+        for (Future<Map<Integer, FlightChunkRow>> chunk : flightChunks) {
+            for (Map.Entry<Integer, FlightChunkRow> flight : await(chunk).entrySet()) {
+                FlightChunkRow row = flight.getValue();
+                FlightSummary summary = row.summary;
+                insert.setInt(1, flight.getKey());
+                insert.setString(2, summary.status);
+                insert.setInt(3, summary.delayed ? 1 : 0);
+                insert.setLong(4, summary.departedAt);
+                insert.setLong(5, summary.landedAt);
+                insert.addBatch();
+                long[] totals = daily.computeIfAbsent(row.departureDate, k -> new HashMap<>())
+                    .computeIfAbsent(row.airline, k -> new long[FlightSummary.TOTALS]);
+                long[] flightTotals = summary.totals();
+                for (int i = 0; i < totals.length; i++) {
+                    totals[i] += flightTotals[i];
+                }
+                statuses.merge(summary.status, 1L, Long::sum);
+                result.flights++;
+                if (row.kept) {
+                    result.keptFlights++;
+                }
+            }
+            insert.executeBatch();
+        }
+        for (Map.Entry<String, Map<String, long[]>> day : daily.entrySet()) {
+            for (Map.Entry<String, long[]> airline : day.getValue().entrySet()) {
+                addDaily(db, day.getKey(), airline.getKey(), airline.getValue());
+            }
+        }
+        for (Map.Entry<String, Long> status : statuses.entrySet()) {
+            addStatus(db, status.getKey(), status.getValue());
+        }
+        result.passengerGroups = passengers.size();
+        return result;
+    }
+
+    private static long[] idRange(Database.Handle db, String table) throws SQLException {
+        try (Statement stmt = db.connection().createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT MIN(id), MAX(id) FROM " + table)) {
+            if (rs.next() && rs.getObject(1) != null) {
+                return new long[] {rs.getLong(1), rs.getLong(2)};
+            }
+            return new long[] {1, 0};
+        }
+    }
+
+    private static <T> T await(Future<T> future) throws SQLException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            throw new SQLException("Report rebuild failed", cause);
+        }
+    }
+
+    private Map<RouteDay, Integer> countPassengers(long fromId, long toId) throws SQLException {
+        Map<RouteDay, Integer> counts = new HashMap<>();
+        try (Database.Handle db = database.reader()) {
+            PreparedStatement query = db.prepare(
+                "SELECT departure_date, airline, departure_airport, arrival_airport, COUNT(*) FROM passengers " +
+                "WHERE id BETWEEN ? AND ? GROUP BY departure_date, airline, departure_airport, arrival_airport");
+            query.setLong(1, fromId);
+            query.setLong(2, toId);
+            try (ResultSet rs = query.executeQuery()) {
+                while (rs.next()) {
+                    counts.put(new RouteDay(rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4)),
+                        rs.getInt(5));
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Replays the stored track of each flight in the id range, oldest point
+     * first, through {@link FlightSummary#next}. Flights whose raw track is
+     * no longer complete keep the summary the reader still sees in
+     * report_flights, if they have one.
+     */
+    private Map<Integer, FlightChunkRow> summarizeFlights(long fromId, long toId) throws SQLException {
+        Map<Integer, FlightChunkRow> flights = new HashMap<>();
+        try (Database.Handle db = database.reader()) {
+            PreparedStatement kept = db.prepare(
+                "SELECT f.id, f.departure_date, f.airline, r.status, r.delayed, r.departed_at, r.landed_at " +
+                "FROM flights f JOIN report_flights r ON r.flight_id = f.id WHERE f.id BETWEEN ? AND ? " +
+                "AND (EXISTS (SELECT 1 FROM flight_track t WHERE t.flight_id = f.id " +
+                "AND t.resolution <> " + FlightHistoryStore.RAW_RESOLUTION + ") " +
+                "OR NOT EXISTS (SELECT 1 FROM flight_track t WHERE t.flight_id = f.id))");
+            kept.setLong(1, fromId);
+            kept.setLong(2, toId);
+            try (ResultSet rs = kept.executeQuery()) {
+                while (rs.next()) {
+                    FlightChunkRow row = new FlightChunkRow(rs.getString(2), rs.getString(3));
+                    row.summary = new FlightSummary(rs.getString(4), rs.getInt(5) != 0, rs.getLong(6), rs.getLong(7));
+                    row.kept = true;
+                    flights.put(rs.getInt(1), row);
+                }
+            }
+
+            PreparedStatement query = db.prepare(
+                "SELECT f.id, f.departure_date, f.airline, t.ts, t.status FROM flights f " +
+                "JOIN flight_track t ON t.flight_id = f.id WHERE f.id BETWEEN ? AND ? ORDER BY f.id, t.ts");
+            query.setLong(1, fromId);
+            query.setLong(2, toId);
+            try (ResultSet rs = query.executeQuery()) {
+                while (rs.next()) {
+                    FlightChunkRow row = flights.get(rs.getInt(1));
+                    if (row != null && row.kept) {
+                        continue;
+                    }
+                    if (row == null) {
+                        row = new FlightChunkRow(rs.getString(2), rs.getString(3));
+                        flights.put(rs.getInt(1), row);
+                    }
+                    row.summary = FlightSummary.next(row.summary, rs.getString(5), rs.getLong(4));
+                }
+            }
+        }
+        return flights;
+    }
+
+    /** Departure date, airline and route of a group of passengers. */
+    static final class RouteDay {
+        final String date;
+        final String airline;
+        final String from;
+        final String to;
+
+        RouteDay(String date, String airline, String from, String to) {
+            this.date = date;
+            this.airline = airline;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof RouteDay)) {
+                return false;
+            }
+            RouteDay other = (RouteDay) o;
+            return date.equals(other.date) && airline.equals(other.airline)
+                && from.equals(other.from) && to.equals(other.to);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(date, airline, from, to);
+        }
+    }
+
+    /** What report_flights holds for one flight. */
+    static final class FlightSummary {
+        /** Length of {@link #totals}, matching the report_daily counters. */
+        static final int TOTALS = 7;
+
+        final String status;
+        final boolean delayed;
+        /** Epoch seconds of the first airborne status, or 0. */
+        final long departedAt;
+        /** Epoch seconds of the first landed status, or 0. */
+        final long landedAt;
+
+        FlightSummary(String status, boolean delayed, long departedAt, long landedAt) {
+            this.status = status;
+            this.delayed = delayed;
+            this.departedAt = departedAt;
+            this.landedAt = landedAt;
+        }
+
+        static FlightSummary next(FlightSummary previous, String status, long epochSeconds) {
+            String normalized = status.toLowerCase(Locale.ROOT);
+            FlightPhase phase = FlightPhase.ofStatus(normalized);
+            boolean delayed = previous != null && previous.delayed;
+            long departedAt = previous != null ? previous.departedAt : 0;
+            long landedAt = previous != null ? previous.landedAt : 0;
+            return new FlightSummary(normalized,
+                delayed || "delayed".equals(normalized),
+                departedAt == 0 && phase == FlightPhase.AIRBORNE ? epochSeconds : departedAt,
+                landedAt == 0 && phase == FlightPhase.LANDED ? epochSeconds : landedAt);
+        }
+
+        /**
+         * This flight's contribution to report_daily: flights, on_time,
+         * delayed, cancelled, landed, airborne_seconds, airborne_flights.
+         */
+        long[] totals() {
+            boolean landed = landedAt > 0;
+            boolean timed = landed && departedAt > 0 && landedAt > departedAt;
+            return new long[] {
+                1,
+                landed && !delayed ? 1 : 0,
+                delayed ? 1 : 0,
+                FlightPhase.ofStatus(status) == FlightPhase.CANCELLED ? 1 : 0,
+                landed ? 1 : 0,
+                timed ? landedAt - departedAt : 0,
+                timed ? 1 : 0
+            };
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof FlightSummary)) {
+                return false;
+            }
+            FlightSummary other = (FlightSummary) o;
+            return status.equals(other.status) && delayed == other.delayed
+                && departedAt == other.departedAt && landedAt == other.landedAt;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(status, delayed, departedAt, landedAt);
+        }
+    }
+
+    private static final class FlightChunkRow {
+        final String departureDate;
+        final String airline;
+        FlightSummary summary;
+        /** Summary carried over from report_flights rather than replayed. */
+        boolean kept;
+
+        FlightChunkRow(String departureDate, String airline) {
+            this.departureDate = departureDate;
+            this.airline = airline;
+        }
+    }
+
+    /**
+     * Outcome of {@link #rebuild}.
+     */
+    public static final class RebuildResult {
+        int passengerChunks;
+        int flightChunks;
+        int passengerGroups;
+        int flights;
+        int keptFlights;
+        long durationMillis;
+
+        public JSONObject toJson() {
+            return new JSONObject()
+                .put("passengerChunks", passengerChunks)
+                .put("flightChunks", flightChunks)
+                .put("passengerGroups", passengerGroups)
+                .put("flights", flights)
+                .put("keptFlights", keptFlights)
+                .put("durationMillis", durationMillis);
+        }
+
+        @Override
+        public String toString() {
+            return passengerGroups + " passenger groups from " + passengerChunks + " chunks, " + flights
+                + " flights from " + flightChunks + " chunks (" + keptFlights + " kept from compacted history) in "
+                + durationMillis + " ms";
+        }
+    }
+}
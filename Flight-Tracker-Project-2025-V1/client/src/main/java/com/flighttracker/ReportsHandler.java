@@ -0,0 +1,120 @@
+package com.flighttracker;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.json.JSONObject;
+
+/**
+ * Operational reports served from {@link ReportRollups}:
+ * <ul>
+ *   <li>{@code GET /api/reports/passengers?by=airline|route|day} - passenger counts</li>
+ *   <li>{@code GET /api/reports/flights?by=day|airline} - on-time, delayed, cancelled
+ *       and landed flights with average airborne time</li>
+ *   <li>{@code GET /api/reports/status} - flights per latest status</li>
+ *   <li>{@code POST /api/reports/rebuild} - recomputes the rollups from history; flights
+ *       whose raw track was already compacted keep their existing figures</li>
+ * </ul>
+ * Responses are cached for {@code flighttracker.reports.cacheMillis}, so
+ * dashboards polling a report share one rollup query.
+ */
+public class ReportsHandler implements HttpHandler {
+    private static final Logger LOGGER = Logger.getLogger(ReportsHandler.class.getName());
+    private static final long CACHE_MILLIS = Long.getLong("flighttracker.reports.cacheMillis", 1000);
+
+    private final ReportRollups reports;
+    private final Map<String, CachedReport> cache = new ConcurrentHashMap<>();
+
+    public ReportsHandler(ReportRollups reports) {
+        this.reports = reports;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
+        try {
+            if (path.equals("/api/reports/rebuild")) {
+                if (!"POST".equals(method)) {
+                    sendJson(exchange, 405, "{\"error\": \"Method not allowed\"}");
+                    return;
+                }
+                ReportRollups.RebuildResult result = reports.rebuild(ReportRollups.REBUILD_THREADS);
+                cache.clear();
+                sendJson(exchange, 200, result.toJson().put("success", true).toString());
+                return;
+            }
+            if (!"GET".equals(method)) {
+                sendJson(exchange, 405, "{\"error\": \"Method not allowed\"}");
+                return;
+            }
+
+            Map<String, String> params = QueryParams.parse(exchange.getRequestURI().getRawQuery());
+            String key = path + "?by=" + params.get("by");
+            long now = System.currentTimeMillis();
+            CachedReport cached = cache.get(key);
+            if (cached == null || now - cached.builtAt > CACHE_MILLIS) {
+                JSONObject report = build(path, params);
+                if (report == null) {
+                    sendJson(exchange, 404, "{\"error\": \"Unknown report\"}");
+                    return;
+                }
+                cached = new CachedReport(report.toString().getBytes(StandardCharsets.UTF_8), now);
+                cache.put(key, cached);
+            }
+            sendJson(exchange, 200, cached.body);
+        } catch (IllegalArgumentException e) {
+            sendJson(exchange, 400, "{\"error\":" + JSONObject.quote(e.getMessage()) + "}");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            sendJson(exchange, 503, "{\"error\": \"Interrupted\"}");
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, "Error building report " + path, e);
+            sendJson(exchange, 500, "{\"error\": \"Internal server error\"}");
+        }
+    }
+
+    /**
+     * Returns null for an unknown report.
+     */
+    private JSONObject build(String path, Map<String, String> params) throws Exception {
+        switch (path) {
+            case "/api/reports/passengers":
+                return reports.passengers(params.getOrDefault("by", "airline"));
+            case "/api/reports/flights":
+                return reports.flights(params.getOrDefault("by", "day"));
+            case "/api/reports/status":
+                return reports.statuses();
+            default:
+                return null;
+        }
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, String body) throws IOException {
+        sendJson(exchange, status, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    private static final class CachedReport {
+        final byte[] body;
+        final long builtAt;
+
+        CachedReport(byte[] body, long builtAt) {
+            this.body = body;
+            this.builtAt = builtAt;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.flighttracker;
+
+import java.lang.management.ManagementFactory;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Splits flight polling between tracker processes sharing one database.
+ * Flights are hashed into {@code flighttracker.shards} shards, and each
+ * shard is polled by whichever instance holds its lease in the
+ * shard_leases table. Every renewal, each instance heartbeats, extends its
+ * leases and then claims free or expired shards, or gives some back, until
+ * it holds its fair share of {@code ceil(shards / live instances)}. An
+ * instance that stops renewing loses its shards to the others once
+ * {@code flighttracker.shard.leaseSeconds} pass, and stops polling them
+ * itself at the same point; one that shuts down cleanly releases them
+ * straight away.
+ *
+ * <p>With one shard (the default) this instance owns every flight and the
+ * database is never consulted.
+ */
+public class ShardLeases {
+    private static final Logger LOGGER = Logger.getLogger(ShardLeases.class.getName());
+    static final int SHARDS = Math.max(1, Integer.getInteger("flighttracker.shards", 1));
+    static final long LEASE_MILLIS = TimeUnit.SECONDS.toMillis(Long.getLong("flighttracker.shard.leaseSeconds", 30));
+    /** Heartbeats older than this many lease periods are deleted. */
+    private static final int INSTANCE_RETENTION_LEASES = 10;
+    private static final BitSet EMPTY = new BitSet();
+
+    private final Database database;
+    private final String instanceId;
+    private final int shardCount;
+    private final long leaseMillis;
+    private volatile BitSet owned = new BitSet();
+    /** When the leases taken by the last successful renewal run out. */
+    private volatile long validUntil = Long.MAX_VALUE;
+    private volatile int liveInstances = 1;
+
+    public ShardLeases(Database database) {
+        this(database, System.getProperty("flighttracker.instanceId", ManagementFactory.getRuntimeMXBean().getName()),
+            SHARDS, LEASE_MILLIS);
+    }
+
+    public ShardLeases(Database database, String instanceId, int shardCount, long leaseMillis) {
+        this.database = database;
+        this.instanceId = instanceId;
+        this.shardCount = shardCount;
+        this.leaseMillis = leaseMillis;
+        if (shardCount == 1) {
+            owned.set(0);
+        }
+        Metrics.gauge("flighttracker_shards_owned", "Shards whose flights this instance polls", () -> held().cardinality());
+        Metrics.gauge("flighttracker_shard_instances", "Tracker instances currently renewing leases", () -> liveInstances);
+    }
+
+    public boolean isSharded() {
+        return shardCount > 1;
+    }
+
+    public String getInstanceId() {
+        return instanceId;
+    }
+
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    /** How often {@link #renew} should run: three times per lease period. */
+    public long getRenewMillis() {
+        return Math.max(1, leaseMillis / 3);
+    }
+
+    /**
+     * Stable across processes: depends only on the flight's airline, flight
+     * number and departure date.
+     */
+    public int shardOf(FlightKey flight) {
+        String key = flight.getAirline() + '|' + flight.getFlightNumber() + '|' + flight.getDepartureDate();
+        return Math.floorMod(key.hashCode(), shardCount);
+    }
+
+    public boolean owns(FlightKey flight) {
+        return held().get(shardOf(flight));
+    }
+
+    /**
+     * Whether this instance should run once-per-cluster housekeeping, such
+     * as history compaction. Held by the owner of shard 0.
+     */
+    public boolean isLeader() {
+        return held().get(0);
+    }
+
+    /**
+     * The shards held as of the last successful renewal, or none once those
+     * leases have expired and other instances may have taken them over.
+     */
+    private BitSet held() {
+        return System.currentTimeMillis() < validUntil ? owned : EMPTY;
+    }
+
+    /**
+     * Heartbeats, renews held leases and rebalances towards this instance's
+     * fair share, all in one transaction.
+     */
+    public void renew(long now) throws SQLException {
+        if (!isSharded()) {
+            return;
+        }
+        BitSet held = new BitSet(shardCount);
+        int[] live = new int[1];
+        try (Database.Handle db = database.writer()) {
+            db.inTransaction(() -> {
+                PreparedStatement heartbeat = db.prepare(
+                    "INSERT INTO shard_instances (instance_id, heartbeat_at) VALUES (?, ?) " +
+                    "ON CONFLICT (instance_id) DO UPDATE SET heartbeat_at = excluded.heartbeat_at");
+                heartbeat.setString(1, instanceId);
+                heartbeat.setLong(2, now);
+                heartbeat.executeUpdate();
+
+                PreparedStatement forget = db.prepare("DELETE FROM shard_instances WHERE heartbeat_at < ?");
+                forget.setLong(1, now - leaseMillis * INSTANCE_RETENTION_LEASES);
+                forget.executeUpdate();
+
+                PreparedStatement count = db.prepare("SELECT COUNT(*) FROM shard_instances WHERE heartbeat_at > ?");
+                count.setLong(1, now - leaseMillis);
+                try (ResultSet rs = count.executeQuery()) {
+                    live[0] = rs.next() ? Math.max(1, rs.getInt(1)) : 1;
+                }
+                int target = (shardCount + live[0] - 1) / live[0];
+
+                PreparedStatement extend = db.prepare("UPDATE shard_leases SET expires_at = ? WHERE owner = ?");
+                extend.setLong(1, now + leaseMillis);
+                extend.setString(2, instanceId);
+                extend.executeUpdate();
+
+                List<Integer> mine = new ArrayList<>();
+                BitSet taken = new BitSet(shardCount);
+                PreparedStatement leases = db.prepare("SELECT shard, owner FROM shard_leases WHERE expires_at > ?");
+                leases.setLong(1, now);
+                try (ResultSet rs = leases.executeQuery()) {
+                    while (rs.next()) {
+                        int shard = rs.getInt(1);
+                        if (shard < shardCount) {
+                            taken.set(shard);
+                            if (instanceId.equals(rs.getString(2))) {
+                                mine.add(shard);
+                            }
+                        }
+                    }
+                }
+
+                PreparedStatement release = db.prepare(
+                    "UPDATE shard_leases SET owner = NULL, expires_at = 0 WHERE shard = ? AND owner = ?");
+                while (mine.size() > target) {
+                    release.setInt(1, mine.remove(mine.size() - 1));
+                    release.setString(2, instanceId);
+                    release.executeUpdate();
+                }
+
+                PreparedStatement claim = db.prepare(
+                    "INSERT INTO shard_leases (shard, owner, expires_at) VALUES (?, ?, ?) " +
+                    "ON CONFLICT (shard) DO UPDATE SET owner = excluded.owner, expires_at = excluded.expires_at");
+                for (int shard = taken.nextClearBit(0); shard < shardCount && mine.size() < target;
+                     shard = taken.nextClearBit(shard + 1)) {
+                    claim.setInt(1, shard);
+                    claim.setString(2, instanceId);
+                    claim.setLong(3, now + leaseMillis);
+                    claim.executeUpdate();
+                    mine.add(shard);
+                }
+                mine.forEach(held::set);
+            });
+        }
+        liveInstances = live[0];
+        if (!held.equals(owned)) {
+            LOGGER.info("Instance " + instanceId + " now polls shards " + held + " of " + shardCount
+                + " (" + live[0] + " instances live)");
+        }
+        owned = held;
+        // Measured from before the transaction, so never later than the
+        // expiry other instances see in shard_leases
+        validUntil = now + leaseMillis;
+    }
+
+    /**
+     * Gives up every lease so other instances can take over without waiting
+     * for them to expire.
+     */
+    public void release() {
+        if (!isSharded()) {
+            return;
+        }
+        owned = new BitSet();
+        try (Database.Handle db = database.writer()) {
+            db.inTransaction(() -> {
+                PreparedStatement release = db.prepare(
+                    "UPDATE shard_leases SET owner = NULL, expires_at = 0 WHERE owner = ?");
+                release.setString(1, instanceId);
+                release.executeUpdate();
+                PreparedStatement leave = db.prepare("DELETE FROM shard_instances WHERE instance_id = ?");
+                leave.setString(1, instanceId);
+                leave.executeUpdate();
+            });
+        } catch (SQLException e) {
+            LOGGER.warning("Could not release shard leases: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.flighttracker;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * In-process flight data provider that makes up statuses and positions.
+ * An optional artificial latency lets the update engine be load-tested
+ * without network access.
+ */
+public class SimulatedFlightDataFetcher implements FlightDataFetcher {
+    private static final String[] STATUSES = {"scheduled", "departed", "in-air", "arrived", "unknown"};
+
+    private final long minLatencyMillis;
+    private final long maxLatencyMillis;
+
+    public SimulatedFlightDataFetcher() {
+        this(0, 0);
+    }
+
+    public SimulatedFlightDataFetcher(long minLatencyMillis, long maxLatencyMillis) {
+        this.minLatencyMillis = minLatencyMillis;
+        this.maxLatencyMillis = Math.max(minLatencyMillis, maxLatencyMillis);
+    }
+
+    @Override
+    public FlightData fetch(FlightKey flight) throws InterruptedException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (maxLatencyMillis > 0) {
+            Thread.sleep(minLatencyMillis + random.nextLong(maxLatencyMillis - minLatencyMillis + 1));
+        }
+
+        String status = STATUSES[random.nextInt(STATUSES.length)];
+        boolean airborne = "in-air".equals(status);
+        return new FlightData(
+            status,
+            30 + random.nextDouble() * 30,
+            -125 + random.nextDouble() * 55,
+            airborne ? 25000 + random.nextDouble() * 12000 : 0,
+            airborne ? 350 + random.nextDouble() * 200 : 0,
+            random.nextDouble() * 360
+        );
+    }
+}
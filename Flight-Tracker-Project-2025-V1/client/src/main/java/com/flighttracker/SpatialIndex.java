@@ -0,0 +1,287 @@
+package com.flighttracker;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory grid over the latest known position of every tracked flight.
+ * The world is split into square cells of {@code flighttracker.spatial.cellDegrees}
+ * (default 1 degree); a query only visits the cells overlapping its area, so
+ * its cost follows the number of nearby aircraft rather than the fleet size.
+ *
+ * <p>The updater moves a flight between cells as results arrive; HTTP
+ * threads query concurrently under a read lock.
+ */
+public class SpatialIndex {
+    static final double EARTH_RADIUS_KM = 6371.0;
+    private static final double KM_PER_DEGREE = Math.PI * EARTH_RADIUS_KM / 180;
+    private static final double HALF_CIRCUMFERENCE_KM = Math.PI * EARTH_RADIUS_KM;
+    private static final double CELL_DEGREES =
+        Double.parseDouble(System.getProperty("flighttracker.spatial.cellDegrees", "1"));
+    private static final int LAT_CELLS = (int) Math.ceil(180 / CELL_DEGREES);
+    private static final int LON_CELLS = (int) Math.ceil(360 / CELL_DEGREES);
+    private static final double INITIAL_NEAREST_RADIUS_KM = 100;
+
+    /**
+     * A flight at its last known position.
+     */
+    public static final class Position {
+        private final FlightKey flight;
+        private final FlightData data;
+        private final List<Integer> passengerIds;
+        private final long cell;
+
+        Position(FlightKey flight, FlightData data, List<Integer> passengerIds) {
+            this.flight = flight;
+            this.data = data;
+            this.passengerIds = passengerIds;
+            this.cell = cellOf(data.getLatitude(), data.getLongitude());
+        }
+
+        public FlightKey getFlight() {
+            return flight;
+        }
+
+        public FlightData getData() {
+            return data;
+        }
+
+        public List<Integer> getPassengerIds() {
+            return passengerIds;
+        }
+    }
+
+    private final Map<FlightKey, Position> positions = new HashMap<>();
+    private final Map<Long, Map<FlightKey, Position>> cells = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Records a fresh lookup result for a flight, moving it to its new cell.
+     */
+    public void update(FlightKey flight, FlightData data, List<Integer> passengerIds) {
+        Position position = new Position(flight, data, passengerIds);
+        lock.writeLock().lock();
+        try {
+            put(position);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Reconciles the index with the tracked flights: flights no longer
+     * tracked are removed, and flights not yet indexed are added from their
+     * stored position. Flights already indexed keep their live position.
+     *
+     * @param stored last stored position per tracked flight, null if never polled
+     */
+    public void sync(Map<FlightKey, List<Integer>> tracked, Map<FlightKey, FlightData> stored) {
+        lock.writeLock().lock();
+        try {
+            Iterator<Position> it = positions.values().iterator();
+            while (it.hasNext()) {
+                Position position = it.next();
+                if (!tracked.containsKey(position.flight)) {
+                    removeFromCell(position);
+                    it.remove();
+                }
+            }
+            for (Map.Entry<FlightKey, FlightData> entry : stored.entrySet()) {
+                Position current = positions.get(entry.getKey());
+                List<Integer> passengerIds = tracked.get(entry.getKey());
+                if (current != null) {
+                    if (current.passengerIds != passengerIds && passengerIds != null) {
+                        put(new Position(current.flight, current.data, passengerIds));
+                    }
+                } else if (entry.getValue() != null && passengerIds != null) {
+                    put(new Position(entry.getKey(), entry.getValue(), passengerIds));
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return positions.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the flights inside a bounding box. A box whose minLon is
+     * greater than its maxLon crosses the antimeridian.
+     */
+    public List<Position> withinBox(double minLat, double minLon, double maxLat, double maxLon, int limit) {
+        List<Position> result = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            collectBox(minLat, minLon, maxLat, maxLon, limit, result);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    /**
+     * Returns the flights within radiusKm of a point, nearest first.
+     */
+    public List<Position> withinRadius(double lat, double lon, double radiusKm, int limit) {
+        List<Position> candidates = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            collectRadius(lat, lon, radiusKm, candidates);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return nearestFirst(candidates, lat, lon, limit);
+    }
+
+    /**
+     * Returns the n flights nearest to a point. The search radius doubles
+     * until it holds n flights, so only the neighbourhood of the point is
+     * scanned when aircraft are dense.
+     */
+    public List<Position> nearest(double lat, double lon, int n) {
+        List<Position> candidates = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            double radiusKm = INITIAL_NEAREST_RADIUS_KM;
+            while (true) {
+                candidates.clear();
+                collectRadius(lat, lon, radiusKm, candidates);
+                if (candidates.size() >= n || radiusKm >= HALF_CIRCUMFERENCE_KM) {
+                    break;
+                }
+                radiusKm *= 2;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return nearestFirst(candidates, lat, lon, n);
+    }
+
+    /**
+     * Great-circle distance in kilometres.
+     */
+    public static double distanceKm(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+            + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+            * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    private void put(Position position) {
+        Position previous = positions.put(position.flight, position);
+        if (previous != null) {
+            removeFromCell(previous);
+        }
+        cells.computeIfAbsent(position.cell, c -> new HashMap<>()).put(position.flight, position);
+    }
+
+    private void removeFromCell(Position position) {
+        Map<FlightKey, Position> cell = cells.get(position.cell);
+        if (cell != null && cell.remove(position.flight) != null && cell.isEmpty()) {
+            cells.remove(position.cell);
+        }
+    }
+
+    private void collectBox(double minLat, double minLon, double maxLat, double maxLon,
+                            int limit, List<Position> result) {
+        if (minLon > maxLon) {
+            collectBox(minLat, minLon, maxLat, 180, limit, result);
+            collectBox(minLat, -180, maxLat, maxLon, limit, result);
+            return;
+        }
+        int fromLat = latIndex(minLat);
+        int toLat = latIndex(maxLat);
+        int fromLon = lonIndex(minLon);
+        int toLon = lonIndex(maxLon);
+        for (int latIdx = fromLat; latIdx <= toLat; latIdx++) {
+            for (int lonIdx = fromLon; lonIdx <= toLon; lonIdx++) {
+                Map<FlightKey, Position> cell = cells.get(cellKey(latIdx, lonIdx));
+                if (cell == null) {
+                    continue;
+                }
+                for (Position position : cell.values()) {
+                    if (result.size() >= limit) {
+                        return;
+                    }
+                    double lat = position.data.getLatitude();
+                    double lon = position.data.getLongitude();
+                    if (lat >= minLat && lat <= maxLat && lon >= minLon && lon <= maxLon) {
+                        result.add(position);
+                    }
+                }
+            }
+        }
+    }
+
+    private void collectRadius(double lat, double lon, double radiusKm, List<Position> result) {
+        double dLat = radiusKm / KM_PER_DEGREE;
+        double minLat = lat - dLat;
+        double maxLat = lat + dLat;
+        List<Position> box = new ArrayList<>();
+        if (minLat <= -90 || maxLat >= 90 || radiusKm >= HALF_CIRCUMFERENCE_KM) {
+            // The circle reaches a pole, so it spans every longitude
+            collectBox(Math.max(minLat, -90), -180, Math.min(maxLat, 90), 180, Integer.MAX_VALUE, box);
+        } else {
+            double dLon = Math.toDegrees(Math.asin(
+                Math.min(1, Math.sin(radiusKm / EARTH_RADIUS_KM) / Math.cos(Math.toRadians(lat)))));
+            if (dLon >= 180) {
+                collectBox(minLat, -180, maxLat, 180, Integer.MAX_VALUE, box);
+            } else {
+                collectBox(minLat, normalizeLon(lon - dLon), maxLat, normalizeLon(lon + dLon), Integer.MAX_VALUE, box);
+            }
+        }
+        for (Position position : box) {
+            if (distanceKm(lat, lon, position.data.getLatitude(), position.data.getLongitude()) <= radiusKm) {
+                result.add(position);
+            }
+        }
+    }
+
+    private static List<Position> nearestFirst(Collection<Position> candidates, double lat, double lon, int limit) {
+        List<Position> sorted = new ArrayList<>(candidates);
+        sorted.sort(Comparator.comparingDouble(
+            p -> distanceKm(lat, lon, p.data.getLatitude(), p.data.getLongitude())));
+        return sorted.size() > limit ? new ArrayList<>(sorted.subList(0, limit)) : sorted;
+    }
+
+    private static long cellOf(double lat, double lon) {
+        return cellKey(latIndex(lat), lonIndex(lon));
+    }
+
+    private static long cellKey(int latIdx, int lonIdx) {
+        return (long) latIdx * LON_CELLS + lonIdx;
+    }
+
+    private static int latIndex(double lat) {
+        int idx = (int) Math.floor((lat + 90) / CELL_DEGREES);
+        return Math.max(0, Math.min(LAT_CELLS - 1, idx));
+    }
+
+    private static int lonIndex(double lon) {
+        int idx = (int) Math.floor((normalizeLon(lon) + 180) / CELL_DEGREES);
+        return Math.max(0, Math.min(LON_CELLS - 1, idx));
+    }
+
+    private static double normalizeLon(double lon) {
+        if (lon >= -180 && lon <= 180) {
+            return lon;
+        }
+        return ((lon + 180) % 360 + 360) % 360 - 180;
+    }
+}
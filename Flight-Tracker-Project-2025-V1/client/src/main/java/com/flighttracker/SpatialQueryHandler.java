@@ -0,0 +1,164 @@
+package com.flighttracker;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.json.JSONObject;
+
+/**
+ * Map queries answered from the {@link SpatialIndex} rather than the database:
+ * <ul>
+ *   <li>{@code /api/flights/area?minLat=&minLon=&maxLat=&maxLon=} - aircraft in a viewport</li>
+ *   <li>{@code /api/flights/nearest?lat=&lon=&n=} - the n aircraft nearest a point</li>
+ *   <li>{@code /api/flights/near?airport=&radiusKm=} - aircraft within a radius of an
+ *       airport, or of {@code lat}/{@code lon}</li>
+ * </ul>
+ * Each returns {@code {"flights":[...]}} with one entry per flight.
+ */
+public class SpatialQueryHandler implements HttpHandler {
+    private static final Logger LOGGER = Logger.getLogger(SpatialQueryHandler.class.getName());
+    private static final int DEFAULT_LIMIT = 1000;
+    private static final int MAX_LIMIT = 10000;
+    private static final double DEFAULT_RADIUS_KM = 50;
+
+    private final SpatialIndex index;
+
+    public SpatialQueryHandler(SpatialIndex index) {
+        this.index = index;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            sendJson(exchange, 405, "{\"error\": \"Method not allowed\"}");
+            return;
+        }
+
+        String path = exchange.getRequestURI().getPath();
+        Double originLat = null;
+        Double originLon = null;
+        List<SpatialIndex.Position> flights;
+        try {
+            Map<String, String> params = QueryParams.parse(exchange.getRequestURI().getRawQuery());
+            if (path.equals("/api/flights/area")) {
+                double minLat = latitude(params, "minLat");
+                double maxLat = latitude(params, "maxLat");
+                if (minLat > maxLat) {
+                    throw new IllegalArgumentException("minLat must not exceed maxLat");
+                }
+                flights = index.withinBox(minLat, longitude(params, "minLon"),
+                    maxLat, longitude(params, "maxLon"), limit(params, "limit", DEFAULT_LIMIT));
+            } else if (path.equals("/api/flights/nearest")) {
+                originLat = latitude(params, "lat");
+                originLon = longitude(params, "lon");
+                flights = index.nearest(originLat, originLon, limit(params, "n", 10));
+            } else if (path.equals("/api/flights/near")) {
+                String airport = params.get("airport");
+                if (airport != null) {
+                    double[] coordinates = Airports.lookup(airport);
+                    if (coordinates == null) {
+                        throw new IllegalArgumentException("Unknown airport: " + airport);
+                    }
+                    originLat = coordinates[0];
+                    originLon = coordinates[1];
+                } else {
+                    originLat = latitude(params, "lat");
+                    originLon = longitude(params, "lon");
+                }
+                double radiusKm = params.containsKey("radiusKm")
+                    ? QueryParams.getDouble(params, "radiusKm") : DEFAULT_RADIUS_KM;
+                if (!(radiusKm > 0)) {
+                    throw new IllegalArgumentException("radiusKm must be positive");
+                }
+                flights = index.withinRadius(originLat, originLon, radiusKm, limit(params, "limit", DEFAULT_LIMIT));
+            } else {
+                sendJson(exchange, 404, "{\"error\": \"Not found\"}");
+                return;
+            }
+        } catch (IllegalArgumentException e) {
+            sendJson(exchange, 400, "{\"error\":" + JSONObject.quote(e.getMessage()) + "}");
+            return;
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Error handling spatial query", e);
+            sendJson(exchange, 500, "{\"error\": \"Internal server error\"}");
+            return;
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, 0);
+        try (JsonStreamWriter json = new JsonStreamWriter(exchange.getResponseBody())) {
+            json.beginObject();
+            json.name("flights").beginArray();
+            for (SpatialIndex.Position position : flights) {
+                writePosition(json, position, originLat, originLon);
+            }
+            json.endArray();
+            json.endObject();
+        }
+    }
+
+    private static void writePosition(JsonStreamWriter json, SpatialIndex.Position position,
+                                      Double originLat, Double originLon) throws IOException {
+        FlightKey flight = position.getFlight();
+        FlightData data = position.getData();
+        json.beginObject();
+        json.name("airline").value(flight.getAirline());
+        json.name("flightNumber").value(flight.getFlightNumber());
+        json.name("departureDate").value(flight.getDepartureDate());
+        json.name("status").value(data.getStatus());
+        json.name("latitude").value(data.getLatitude());
+        json.name("longitude").value(data.getLongitude());
+        json.name("altitude").value(data.getAltitude());
+        json.name("velocity").value(data.getVelocity());
+        json.name("heading").value(data.getHeading());
+        if (originLat != null) {
+            json.name("distanceKm").value(SpatialIndex.distanceKm(
+                originLat, originLon, data.getLatitude(), data.getLongitude()));
+        }
+        json.name("passengerIds").beginArray();
+        for (int passengerId : position.getPassengerIds()) {
+            json.value(passengerId);
+        }
+        json.endArray();
+        json.endObject();
+    }
+
+    private static double latitude(Map<String, String> params, String name) {
+        double value = QueryParams.getDouble(params, name);
+        if (value < -90 || value > 90) {
+            throw new IllegalArgumentException(name + " must be between -90 and 90");
+        }
+        return value;
+    }
+
+    private static double longitude(Map<String, String> params, String name) {
+        double value = QueryParams.getDouble(params, name);
+        if (value < -180 || value > 180) {
+            throw new IllegalArgumentException(name + " must be between -180 and 180");
+        }
+        return value;
+    }
+
+    private static int limit(Map<String, String> params, String name, int defaultValue) {
+        int value = QueryParams.getInt(params, name, defaultValue);
+        if (value < 1 || value > MAX_LIMIT) {
+            throw new IllegalArgumentException(name + " must be between 1 and " + MAX_LIMIT);
+        }
+        return value;
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+}
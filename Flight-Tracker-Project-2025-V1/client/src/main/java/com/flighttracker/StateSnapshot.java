@@ -0,0 +1,203 @@
+package com.flighttracker;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Logger;
+
+/**
+ * Binary snapshot of the live state ({@link FlightStateStore}) and polling
+ * schedule ({@link FlightScheduler}), so a restart can serve reads and
+ * resume polling before SQLite has been consulted. The tracker writes one
+ * every {@code flighttracker.snapshot.intervalSeconds} and on shutdown to
+ * {@code flighttracker.snapshot.file}, via a temporary file and an atomic
+ * rename. On startup the file is memory-mapped and its arrays are copied
+ * out in bulk.
+ *
+ * <p>A snapshot only needs to be close to the database: the first sync
+ * after loading picks up passengers added since, and reloads from SQLite
+ * if any were removed or changed.
+ */
+public class StateSnapshot {
+    private static final Logger LOGGER = Logger.getLogger(StateSnapshot.class.getName());
+    static final long INTERVAL_SECONDS = Long.getLong("flighttracker.snapshot.intervalSeconds", 60);
+    /** "FTS1" */
+    private static final int MAGIC = 0x46545331;
+    private static final int FORMAT_VERSION = 2;
+    private static final Metrics.Histogram WRITE_DURATION = Metrics.histogram("flighttracker_snapshot_seconds",
+        "Time to write or load the state snapshot", "op", "write");
+    private static final Metrics.Histogram LOAD_DURATION = Metrics.histogram("flighttracker_snapshot_seconds",
+        "Time to write or load the state snapshot", "op", "load");
+
+    private final Path file;
+
+    public StateSnapshot() {
+        this(configuredFile());
+    }
+
+    /**
+     * The {@code flighttracker.snapshot.file} path, read on each call so a
+     * process can open several trackers with their own files.
+     */
+    static Path configuredFile() {
+        return Paths.get(System.getProperty("flighttracker.snapshot.file", "flight_tracker.snapshot"));
+    }
+
+    public StateSnapshot(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Replaces the snapshot file with the current state.
+     */
+    public synchronized void write(FlightStateStore store, FlightScheduler scheduler) throws IOException {
+        long start = System.nanoTime();
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                 StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Output out = new Output(channel);
+            out.putInt(MAGIC);
+            out.putInt(FORMAT_VERSION);
+            out.putLong(System.currentTimeMillis());
+            store.writeSnapshot(out);
+            scheduler.writeSnapshot(out);
+            out.putInt(MAGIC);
+            out.flush();
+            channel.force(false);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        WRITE_DURATION.recordSince(start);
+    }
+
+    /**
+     * Loads the snapshot into an empty store and scheduler. Nothing is
+     * changed unless the whole file is read successfully.
+     *
+     * @return false if there is no usable snapshot
+     */
+    public boolean load(FlightStateStore store, FlightScheduler scheduler, long now) {
+        if (!Files.isRegularFile(file)) {
+            return false;
+        }
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.getInt() != MAGIC || in.getInt() != FORMAT_VERSION) {
+                LOGGER.warning("Ignoring snapshot " + file + ": unknown format");
+                return false;
+            }
+            long writtenAt = in.getLong();
+            Runnable installStore = store.readSnapshot(in);
+            Runnable installSchedule = scheduler.readSnapshot(in, now);
+            if (in.getInt() != MAGIC) {
+                LOGGER.warning("Ignoring snapshot " + file + ": truncated");
+                return false;
+            }
+            installStore.run();
+            installSchedule.run();
+            LOAD_DURATION.recordSince(start);
+            LOGGER.info("Loaded " + store.getPassengerCount() + " passengers and " + scheduler.getTrackedCount()
+                + " flights from snapshot taken " + (now - writtenAt) / 1000 + " s ago");
+            return true;
+        } catch (IOException | RuntimeException e) {
+            // Corrupt lengths surface as underflows or negative array sizes
+            LOGGER.warning("Ignoring snapshot " + file + ": " + e);
+            return false;
+        }
+    }
+
+    static String getString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static int[] getInts(ByteBuffer in, int count) {
+        int[] values = new int[count];
+        in.asIntBuffer().get(values);
+        in.position(in.position() + count * Integer.BYTES);
+        return values;
+    }
+
+    static double[] getDoubles(ByteBuffer in, int count) {
+        double[] values = new double[count];
+        in.asDoubleBuffer().get(values);
+        in.position(in.position() + count * Double.BYTES);
+        return values;
+    }
+
+    /**
+     * Buffered writer for the snapshot file. Primitive arrays are copied
+     * into the buffer in bulk rather than value by value.
+     */
+    static final class Output {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(256 * 1024);
+
+        Output(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(Integer.BYTES);
+            buffer.putInt(value);
+        }
+
+        void putLong(long value) throws IOException {
+            ensure(Long.BYTES);
+            buffer.putLong(value);
+        }
+
+        void putString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            for (int offset = 0; offset < bytes.length; ) {
+                ensure(1);
+                int length = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, length);
+                offset += length;
+            }
+        }
+
+        void putInts(int[] values, int count) throws IOException {
+            for (int offset = 0; offset < count; ) {
+                ensure(Integer.BYTES);
+                int length = Math.min(buffer.remaining() / Integer.BYTES, count - offset);
+                buffer.asIntBuffer().put(values, offset, length);
+                buffer.position(buffer.position() + length * Integer.BYTES);
+                offset += length;
+            }
+        }
+
+        void putDoubles(double[] values, int count) throws IOException {
+            for (int offset = 0; offset < count; ) {
+                ensure(Double.BYTES);
+                int length = Math.min(buffer.remaining() / Double.BYTES, count - offset);
+                buffer.asDoubleBuffer().put(values, offset, length);
+                buffer.position(buffer.position() + length * Double.BYTES);
+                offset += length;
+            }
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package com.flighttracker;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Write-behind persistence for lookup results. The updater hands records to
+ * a bounded queue and moves on; a single writer thread drains the queue and
+ * commits it in groups of up to {@code flighttracker.persist.batchSize}
+ * records, waiting at most {@code flighttracker.persist.maxDelayMs} for a
+ * group to fill. One fsync then covers many updates instead of one each.
+ *
+ * <p>When the queue ({@code flighttracker.persist.queueSize}) is full,
+ * {@link #enqueue} blocks until the writer catches up, so a slow disk slows
+ * the updater down rather than growing memory. {@link #close} drains and
+ * commits whatever is still queued.
+ *
+ * <p>A group whose commit fails is dropped, and its flights are reported by
+ * {@link #needsWrite} until they are queued again, so the updater writes
+ * the next lookup even when it matches the state already in memory.
+ */
+public class StatusWriteBehind implements AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(StatusWriteBehind.class.getName());
+    private static final int QUEUE_CAPACITY = Integer.getInteger("flighttracker.persist.queueSize", 10000);
+    private static final int MAX_BATCH = Integer.getInteger("flighttracker.persist.batchSize", 500);
+    private static final long MAX_DELAY_MILLIS = Long.getLong("flighttracker.persist.maxDelayMs", 50);
+    private static final long CLOSE_TIMEOUT_SECONDS = 30;
+    private static final Metrics.Histogram GROUP_COMMIT = Metrics.histogram("flighttracker_status_group_commit_seconds",
+        "Time to persist one group of status updates, including waiting for the writer");
+
+    private final Database database;
+    private final FlightHistoryStore historyStore;
+    private final ReportRollups reports;
+    private final BlockingQueue<StatusRecord> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    /** Flights whose last queued record was lost in a failed commit. */
+    private final Set<FlightKey> unwritten = ConcurrentHashMap.newKeySet();
+    private final Thread writer;
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong groups = new AtomicLong();
+    private final AtomicLong lost = new AtomicLong();
+    private final AtomicLong blockedEnqueues = new AtomicLong();
+    /** Bumped by {@link #discardQueued}; records from an older generation are not written. */
+    private volatile long generation;
+    private volatile boolean closed;
+
+    public StatusWriteBehind(Database database, FlightHistoryStore historyStore, ReportRollups reports) {
+        this.database = database;
+        this.historyStore = historyStore;
+        this.reports = reports;
+        this.writer = new Thread(this::run, "status-writer");
+        writer.setDaemon(true);
+        writer.setUncaughtExceptionHandler((thread, e) -> LOGGER.log(Level.SEVERE, "Status writer thread died", e));
+        writer.start();
+
+        Metrics.gauge("flighttracker_status_queue_depth", "Status updates waiting to be persisted", queue::size);
+        Metrics.functionCounter("flighttracker_status_writes_total", "Status updates persisted", written::get);
+        Metrics.functionCounter("flighttracker_status_write_failures_total",
+            "Status updates dropped after a failed commit", lost::get);
+        Metrics.functionCounter("flighttracker_status_queue_full_total",
+            "Enqueues that blocked because the queue was full", blockedEnqueues::get);
+    }
+
+    /**
+     * Queues a lookup result for persistence, blocking while the queue is full.
+     * The generation is the one the caller read, from {@link #getGeneration},
+     * before it looked up the flight's passengers; the record is dropped if
+     * {@link #discardQueued} has run since, as those passengers may be gone.
+     *
+     * @throws IllegalStateException if the writer has been closed or its
+     *         thread has died, since the queue would then never drain
+     */
+    public void enqueue(FlightKey flight, FlightData data, List<Integer> passengerIds, long generation)
+            throws InterruptedException {
+        if (closed) {
+            throw new IllegalStateException("Status writer is closed");
+        }
+        checkWriterAlive();
+        if (generation != this.generation) {
+            return;
+        }
+        StatusRecord record = new StatusRecord(flight, data, passengerIds, Instant.now(), generation);
+        unwritten.remove(flight);
+        if (!queue.offer(record)) {
+            blockedEnqueues.incrementAndGet();
+            while (!queue.offer(record, 1, TimeUnit.SECONDS)) {
+                checkWriterAlive();
+            }
+        }
+    }
+
+    private void checkWriterAlive() {
+        if (!writer.isAlive()) {
+            throw new IllegalStateException("Status writer thread has stopped");
+        }
+    }
+
+    /**
+     * Whether the flight's last record was lost, so the database may be
+     * behind the state store until the flight is queued again.
+     */
+    public boolean needsWrite(FlightKey flight) {
+        return unwritten.contains(flight);
+    }
+
+    /**
+     * Drops every record not yet committed, including a group the writer
+     * thread has already taken from the queue. The caller must hold the
+     * database writer, so that no group commits while this runs and none of
+     * the dropped records can be written afterwards.
+     *
+     * @return the number of queued records dropped
+     */
+    public int discardQueued() {
+        generation++;
+        unwritten.clear();
+        List<StatusRecord> dropped = new ArrayList<>();
+        queue.drainTo(dropped);
+        return dropped.size();
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public long getWritten() {
+        return written.get();
+    }
+
+    public long getGroups() {
+        return groups.get();
+    }
+
+    public long getLost() {
+        return lost.get();
+    }
+
+    public long getBlockedEnqueues() {
+        return blockedEnqueues.get();
+    }
+
+    /**
+     * Stops accepting records and waits for the queue to be committed.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(CLOSE_TIMEOUT_SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (writer.isAlive() || !queue.isEmpty()) {
+            LOGGER.warning("Status writer closed with " + queue.size() + " records unwritten");
+        } else {
+            LOGGER.info("Status writer flushed: " + written.get() + " records in " + groups.get() + " groups");
+        }
+    }
+
+    private void run() {
+        List<StatusRecord> group = new ArrayList<>(MAX_BATCH);
+        while (!closed || !queue.isEmpty()) {
+            try {
+                StatusRecord first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                group.add(first);
+                fill(group);
+            } catch (InterruptedException e) {
+                // Keep draining; close() decides when to give up
+                closed = true;
+            }
+            if (!group.isEmpty()) {
+                commit(group);
+                group.clear();
+            }
+        }
+    }
+
+    /**
+     * Tops the group up with whatever is queued, waiting up to the maximum
+     * delay for it to fill unless the writer is closing.
+     */
+    private void fill(List<StatusRecord> group) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_DELAY_MILLIS);
+        while (group.size() < MAX_BATCH) {
+            queue.drainTo(group, MAX_BATCH - group.size());
+            long remaining = deadline - System.nanoTime();
+            if (group.size() >= MAX_BATCH || remaining <= 0 || closed) {
+                return;
+            }
+            StatusRecord next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            group.add(next);
+        }
+    }
+
+    /**
+     * Writes a group in one transaction: the passengers' rows in
+     * flight_status_latest, one track point per record and the report
+     * rollups.
+     */
+    private void commit(List<StatusRecord> group) {
+        long start = System.nanoTime();
+        try (Database.Handle db = database.writer()) {
+            // Discarded while this group waited for the writer
+            long current = generation;
+            group.removeIf(record -> record.generation != current);
+            if (group.isEmpty()) {
+                return;
+            }
+            PreparedStatement latest = db.prepare(
+                "INSERT OR REPLACE INTO flight_status_latest " +
+                "(passenger_id, status, latitude, longitude, altitude, velocity, heading, last_update) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+            db.inTransaction(() -> {
+                for (StatusRecord record : group) {
+                    String lastUpdate = record.recordedAt.toString();
+                    for (int passengerId : record.passengerIds) {
+                        bindStatus(latest, passengerId, record.data, lastUpdate);
+                        latest.addBatch();
+                    }
+                    long epochSeconds = record.recordedAt.getEpochSecond();
+                    historyStore.record(db, record.flight, epochSeconds, record.data);
+                    reports.recordStatus(db, historyStore.flightId(db, record.flight), record.flight,
+                        epochSeconds, record.data.getStatus());
+                }
+                latest.executeBatch();
+            });
+            historyStore.committed();
+            written.addAndGet(group.size());
+            groups.incrementAndGet();
+            GROUP_COMMIT.recordSince(start);
+        } catch (SQLException | RuntimeException e) {
+            // A bug in binding or the rollups must not kill the writer thread
+            historyStore.rolledBack();
+            // Retrying could commit these after newer records for the same
+            // flights. The group is dropped instead, and the flights are marked
+            // so their next lookup is written even if nothing has changed.
+            for (StatusRecord record : group) {
+                unwritten.add(record.flight);
+            }
+            lost.addAndGet(group.size());
+            LOGGER.log(Level.SEVERE, "Failed to persist " + group.size() + " status updates", e);
+        }
+    }
+
+    private static void bindStatus(PreparedStatement stmt, int passengerId, FlightData data, String lastUpdate)
+            throws SQLException {
+        stmt.setInt(1, passengerId);
+        stmt.setString(2, data.getStatus());
+        stmt.setDouble(3, data.getLatitude());
+        stmt.setDouble(4, data.getLongitude());
+        stmt.setDouble(5, data.getAltitude());
+        stmt.setDouble(6, data.getVelocity());
+        stmt.setDouble(7, data.getHeading());
+        stmt.setString(8, lastUpdate);
+    }
+
+    private static final class StatusRecord {
+        final FlightKey flight;
+        final FlightData data;
+        final List<Integer> passengerIds;
+        final Instant recordedAt;
+        final long generation;
+
+        StatusRecord(FlightKey flight, FlightData data, List<Integer> passengerIds, Instant recordedAt,
+                     long generation) {
+            this.flight = flight;
+            this.data = data;
+            this.passengerIds = passengerIds;
+            this.recordedAt = recordedAt;
+            this.generation = generation;
+        }
+    }
+}
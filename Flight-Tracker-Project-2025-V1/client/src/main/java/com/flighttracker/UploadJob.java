@@ -0,0 +1,164 @@
+package com.flighttracker;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import org.json.JSONObject;
+
+/**
+ * One passenger manifest upload: the bytes received so far, staged on disk,
+ * and the progress of the import pipeline once the upload is complete.
+ * Counters are updated by the pipeline threads and read by status polls.
+ */
+public class UploadJob {
+
+    /** How the manifest is reconciled with the passengers already on file. */
+    public enum Mode {
+        /** Add new passengers; ones already on file are left alone. */
+        INSERT,
+        /** Add new passengers and update changed ones in place. */
+        UPSERT,
+        /** As UPSERT, and remove passengers missing from the manifest. */
+        SYNC
+    }
+
+    public enum State {
+        /** Accepting chunks; nothing has been imported yet. */
+        RECEIVING,
+        /** Complete and waiting for a free pipeline. */
+        QUEUED,
+        RUNNING,
+        DONE,
+        FAILED,
+        CANCELLED;
+
+        boolean isFinished() {
+            return this == DONE || this == FAILED || this == CANCELLED;
+        }
+    }
+
+    private final String id;
+    private final Path stagingFile;
+    private final long expectedBytes;
+    private final Mode mode;
+    private final Instant createdAt = Instant.now();
+    private volatile Instant updatedAt = createdAt;
+    private volatile State state = State.RECEIVING;
+    private volatile String error;
+
+    final AtomicLong bytesReceived = new AtomicLong();
+    final AtomicLong bytesParsed = new AtomicLong();
+    final AtomicLong rowsRead = new AtomicLong();
+    final AtomicLong rowsRejected = new AtomicLong();
+    final AtomicLong rowsDuplicate = new AtomicLong();
+    final AtomicLong rowsInserted = new AtomicLong();
+    final AtomicLong rowsUpdated = new AtomicLong();
+    final AtomicLong rowsUnchanged = new AtomicLong();
+    final AtomicLong rowsRemoved = new AtomicLong();
+
+    /**
+     * @param expectedBytes the declared upload size, or -1 if unknown
+     */
+    UploadJob(String id, Path stagingFile, long expectedBytes, Mode mode) {
+        this.id = id;
+        this.stagingFile = stagingFile;
+        this.expectedBytes = expectedBytes;
+        this.mode = mode;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    Path getStagingFile() {
+        return stagingFile;
+    }
+
+    public long getExpectedBytes() {
+        return expectedBytes;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+
+    /**
+     * Moves the job to {@code next} unless it has already finished, e.g.
+     * because it was cancelled while a stage was still running.
+     *
+     * @return whether the state changed
+     */
+    synchronized boolean transition(State next) {
+        if (state.isFinished()) {
+            return false;
+        }
+        state = next;
+        touch();
+        return true;
+    }
+
+    synchronized void fail(String message) {
+        if (transition(State.FAILED)) {
+            error = message;
+        }
+    }
+
+    void touch() {
+        updatedAt = Instant.now();
+    }
+
+    /** Stops pipeline stages once the job has failed or been cancelled. */
+    boolean isStopped() {
+        State current = state;
+        return current == State.FAILED || current == State.CANCELLED;
+    }
+
+    JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        json.put("jobId", id);
+        json.put("state", state.name());
+        json.put("mode", mode.name().toLowerCase(Locale.ROOT));
+        json.put("bytesReceived", bytesReceived.get());
+        if (expectedBytes >= 0) {
+            json.put("expectedBytes", expectedBytes);
+        }
+        long received = bytesReceived.get();
+        if (state != State.RECEIVING && received > 0) {
+            json.put("progress", Math.min(1.0, Math.round(bytesParsed.get() * 1000.0 / received) / 1000.0));
+        }
+        json.put("rowsRead", rowsRead.get());
+        json.put("rowsRejected", rowsRejected.get());
+        json.put("rowsDuplicate", rowsDuplicate.get());
+        json.put("rowsInserted", rowsInserted.get());
+        if (mode != Mode.INSERT) {
+            json.put("rowsUpdated", rowsUpdated.get());
+            json.put("rowsUnchanged", rowsUnchanged.get());
+        }
+        if (mode == Mode.SYNC) {
+            json.put("rowsRemoved", rowsRemoved.get());
+        }
+        json.put("createdAt", createdAt.toString());
+        json.put("updatedAt", updatedAt.toString());
+        if (error != null) {
+            json.put("error", error);
+        }
+        return json;
+    }
+}
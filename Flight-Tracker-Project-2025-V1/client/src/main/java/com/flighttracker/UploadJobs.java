@@ -0,0 +1,280 @@
+package com.flighttracker;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Tracks passenger manifest uploads from the first chunk to the end of the
+ * import. Each upload is staged in its own file under
+ * {@code flighttracker.upload.dir} and appended to at the offset the client
+ * says it is resuming from, so a dropped connection only costs the chunk in
+ * flight. Completed uploads are imported by {@link UploadPipeline}, at most
+ * {@code flighttracker.upload.concurrentJobs} at a time; the rest wait in
+ * QUEUED. Appending imports hold the database writer for one batch at a
+ * time; upsert and sync imports hold it while they read, diff and write the
+ * whole manifest in one transaction. Neither uses the reader pool, so
+ * dashboard reads are not held up.
+ *
+ * <p>Finished jobs, and uploads left incomplete, are forgotten after
+ * {@code flighttracker.upload.retentionMinutes} of inactivity. Jobs live in
+ * memory only, so staging files left by a previous run are deleted on
+ * startup.
+ */
+public class UploadJobs implements AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(UploadJobs.class.getName());
+    private static final Path STAGING_DIR = Paths.get(System.getProperty("flighttracker.upload.dir", "uploads"));
+    private static final int CONCURRENT_JOBS = Integer.getInteger("flighttracker.upload.concurrentJobs", 2);
+    private static final long MAX_BYTES = Long.getLong("flighttracker.upload.maxBytes", 512L * 1024 * 1024);
+    private static final Duration RETENTION =
+        Duration.ofMinutes(Long.getLong("flighttracker.upload.retentionMinutes", 60));
+    private static final Metrics.Histogram JOB_DURATION = Metrics.histogram("flighttracker_upload_job_seconds",
+        "Time from an upload being queued to its import finishing");
+
+    private final PassengerCsvImporter importer;
+    private final int batchSize;
+    private final Consumer<UploadJob> onImported;
+    private final Map<String, UploadJob> jobs = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor jobPool;
+    private final ExecutorService stagePool;
+
+    /**
+     * @param onImported called after a job has changed at least one passenger
+     */
+    public UploadJobs(PassengerCsvImporter importer, int batchSize, Consumer<UploadJob> onImported) {
+        this.importer = importer;
+        this.batchSize = batchSize;
+        this.onImported = onImported;
+        this.jobPool = new ThreadPoolExecutor(CONCURRENT_JOBS, CONCURRENT_JOBS, 0, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(), daemonThreads("upload-job-"));
+        this.stagePool = Executors.newCachedThreadPool(daemonThreads("upload-stage-"));
+
+        removeStaleStagingFiles();
+
+        Metrics.gauge("flighttracker_upload_jobs_queued", "Completed uploads waiting for a pipeline",
+            () -> jobPool.getQueue().size());
+        Metrics.gauge("flighttracker_upload_jobs_running", "Uploads being imported", jobPool::getActiveCount);
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Opens a new upload with an empty staging file.
+     *
+     * @param expectedBytes the declared size, or -1 if unknown
+     * @throws IllegalArgumentException if the declared size is over the limit
+     */
+    public UploadJob create(long expectedBytes, UploadJob.Mode mode) throws IOException {
+        if (expectedBytes > MAX_BYTES) {
+            throw new IllegalArgumentException("Upload exceeds " + MAX_BYTES + " bytes");
+        }
+        expire();
+        Files.createDirectories(STAGING_DIR);
+        String id = UUID.randomUUID().toString().replace("-", "");
+        UploadJob job = new UploadJob(id, STAGING_DIR.resolve(id + ".csv"), expectedBytes, mode);
+        Files.createFile(job.getStagingFile());
+        jobs.put(id, job);
+        return job;
+    }
+
+    public UploadJob get(String id) {
+        return jobs.get(id);
+    }
+
+    public List<UploadJob> list() {
+        return new ArrayList<>(jobs.values());
+    }
+
+    /**
+     * Appends a chunk at {@code offset}, which must equal the bytes received
+     * so far. Bytes are counted as they are written, so if the connection
+     * drops mid-chunk the client can resume from {@link UploadJob#getBytesReceived}.
+     *
+     * @return the new number of bytes received
+     * @throws IllegalStateException if the job is no longer receiving or the
+     *         offset does not match
+     * @throws IllegalArgumentException if the chunk takes the upload over
+     *         its declared size or the limit
+     */
+    public long append(UploadJob job, long offset, InputStream chunk) throws IOException {
+        synchronized (job) {
+            if (job.getState() != UploadJob.State.RECEIVING) {
+                throw new IllegalStateException("Upload is " + job.getState());
+            }
+            if (offset != job.getBytesReceived()) {
+                throw new IllegalStateException("Expected offset " + job.getBytesReceived() + " but got " + offset);
+            }
+            long limit = job.getExpectedBytes() >= 0 ? job.getExpectedBytes() : MAX_BYTES;
+            try (FileChannel channel = FileChannel.open(job.getStagingFile(), StandardOpenOption.WRITE)) {
+                // Drop anything past the last counted byte from an interrupted write
+                channel.truncate(offset);
+                channel.position(offset);
+                byte[] buffer = new byte[64 * 1024];
+                int read;
+                while ((read = chunk.read(buffer)) > 0) {
+                    if (job.getBytesReceived() + read > limit) {
+                        throw new IllegalArgumentException("Upload exceeds " + limit + " bytes");
+                    }
+                    ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, read);
+                    while (bytes.hasRemaining()) {
+                        channel.write(bytes);
+                    }
+                    job.bytesReceived.addAndGet(read);
+                }
+            } finally {
+                job.touch();
+            }
+            return job.getBytesReceived();
+        }
+    }
+
+    /**
+     * Marks the upload complete and queues it for import.
+     *
+     * @throws IllegalStateException if the job is not receiving or has not
+     *         received its declared size
+     */
+    public void submit(UploadJob job) {
+        synchronized (job) {
+            if (job.getState() != UploadJob.State.RECEIVING) {
+                throw new IllegalStateException("Upload is " + job.getState());
+            }
+            if (job.getExpectedBytes() >= 0 && job.getBytesReceived() != job.getExpectedBytes()) {
+                throw new IllegalStateException("Received " + job.getBytesReceived() + " of "
+                    + job.getExpectedBytes() + " bytes");
+            }
+            job.transition(UploadJob.State.QUEUED);
+        }
+        long queued = System.nanoTime();
+        jobPool.execute(() -> run(job, queued));
+    }
+
+    private void run(UploadJob job, long queued) {
+        if (!job.transition(UploadJob.State.RUNNING)) {
+            return;
+        }
+        LOGGER.info("Importing upload " + job.getId() + " (" + job.getBytesReceived() + " bytes)");
+        new UploadPipeline(job, importer, stagePool, batchSize).run();
+        JOB_DURATION.recordSince(queued);
+        deleteStagingFile(job);
+
+        if (job.getState() == UploadJob.State.FAILED) {
+            LOGGER.warning("Upload " + job.getId() + " failed: " + job.getError());
+        } else {
+            LOGGER.info("Upload " + job.getId() + " " + job.getState() + ": " + job.toJson());
+        }
+        if (job.rowsInserted.get() + job.rowsUpdated.get() + job.rowsRemoved.get() > 0) {
+            try {
+                onImported.accept(job);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.SEVERE, "Error refreshing after upload " + job.getId(), e);
+            }
+        }
+    }
+
+    /**
+     * Cancels an upload. A running import stops at its next batch; rows
+     * already committed stay.
+     *
+     * @return false if the job had already finished
+     */
+    public boolean cancel(UploadJob job) {
+        boolean cancelled;
+        UploadJob.State previous;
+        synchronized (job) {
+            previous = job.getState();
+            cancelled = job.transition(UploadJob.State.CANCELLED);
+        }
+        if (cancelled && previous != UploadJob.State.RUNNING) {
+            // A running pipeline still has the file open; it is removed when the job thread finishes
+            deleteStagingFile(job);
+        }
+        return cancelled;
+    }
+
+    /**
+     * Forgets finished and abandoned jobs older than the retention period.
+     */
+    private void expire() {
+        Instant cutoff = Instant.now().minus(RETENTION);
+        jobs.values().removeIf(job -> {
+            UploadJob.State state = job.getState();
+            boolean stale = (state.isFinished() || state == UploadJob.State.RECEIVING)
+                && job.getUpdatedAt().isBefore(cutoff);
+            if (stale) {
+                deleteStagingFile(job);
+            }
+            return stale;
+        });
+    }
+
+    private static void removeStaleStagingFiles() {
+        if (!Files.isDirectory(STAGING_DIR)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(STAGING_DIR, "*.csv")) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not clear " + STAGING_DIR, e);
+        }
+    }
+
+    private static void deleteStagingFile(UploadJob job) {
+        try {
+            Files.deleteIfExists(job.getStagingFile());
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not delete " + job.getStagingFile(), e);
+        }
+    }
+
+    /**
+     * Cancels queued and running imports and stops the pipeline threads.
+     */
+    @Override
+    public void close() {
+        for (UploadJob job : jobs.values()) {
+            if (job.getState() == UploadJob.State.QUEUED || job.getState() == UploadJob.State.RUNNING) {
+                cancel(job);
+            }
+        }
+        jobPool.shutdown();
+        try {
+            jobPool.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        stagePool.shutdownNow();
+    }
+}
@@ -0,0 +1,251 @@
+package com.flighttracker;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Imports one staged upload as four stages connected by small bounded
+ * queues: parse splits lines into fields, validate turns them into
+ * passenger rows, dedupe drops rows repeated within the upload, and insert
+ * writes them in {@code batchSize} transactions, skipping passengers that
+ * are already booked. The first three stages run on the shared stage pool;
+ * insert runs on the calling job thread, so rows are written in file order
+ * while the next batches are being parsed. In UPSERT and SYNC mode the
+ * last stage instead collects the whole manifest and applies it as one
+ * diff (see {@link PassengerCsvImporter#applyDiff}).
+ *
+ * <p>Any stage failing marks the job failed, which stops the others at
+ * their next queue operation.
+ */
+final class UploadPipeline {
+    /** Lines handed between stages at a time. */
+    private static final int STAGE_BATCH = 1000;
+    private static final int QUEUE_BATCHES = 4;
+    private static final long POLL_MILLIS = 100;
+
+    private final UploadJob job;
+    private final PassengerCsvImporter importer;
+    private final ExecutorService stagePool;
+    private final int batchSize;
+
+    private final BlockingQueue<List<List<String>>> parsed = new ArrayBlockingQueue<>(QUEUE_BATCHES);
+    private final BlockingQueue<List<String[]>> validated = new ArrayBlockingQueue<>(QUEUE_BATCHES);
+    private final BlockingQueue<List<String[]>> unique = new ArrayBlockingQueue<>(QUEUE_BATCHES);
+
+    UploadPipeline(UploadJob job, PassengerCsvImporter importer, ExecutorService stagePool, int batchSize) {
+        this.job = job;
+        this.importer = importer;
+        this.stagePool = stagePool;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Runs the job to completion, leaving it DONE, FAILED or CANCELLED.
+     */
+    void run() {
+        List<Future<?>> stages = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(job.getStagingFile(), StandardOpenOption.READ);
+             BufferedReader reader = new BufferedReader(
+                 new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8), 64 * 1024)) {
+
+            String headerLine = reader.readLine();
+            if (headerLine == null) {
+                throw new IllegalArgumentException("CSV file is empty");
+            }
+            int[] columns = PassengerCsvImporter.mapHeaders(
+                PassengerCsvImporter.splitLine(PassengerCsvImporter.stripBom(headerLine)));
+
+            stages.add(stagePool.submit(() -> parse(reader, channel)));
+            stages.add(stagePool.submit(() -> validate(columns)));
+            stages.add(stagePool.submit(this::dedupe));
+            insert();
+
+            for (Future<?> stage : stages) {
+                stage.get();
+            }
+            job.bytesParsed.set(job.getBytesReceived());
+            job.transition(UploadJob.State.DONE);
+        } catch (CancellationException e) {
+            // Already failed or cancelled; the other stages stop on their own
+        } catch (InterruptedException e) {
+            job.fail("Interrupted");
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            fail(e.getCause());
+        } catch (Exception e) {
+            fail(e);
+        } finally {
+            if (job.isStopped()) {
+                stages.forEach(stage -> stage.cancel(true));
+            }
+            PassengerCsvImporter.recordRows(job.rowsInserted.get(), job.rowsRejected.get(), job.rowsDuplicate.get());
+        }
+    }
+
+    private void fail(Throwable e) {
+        if (e instanceof CancellationException) {
+            return;
+        }
+        job.fail(e instanceof IllegalArgumentException ? "Invalid CSV format - " + e.getMessage() : e.toString());
+    }
+
+    private Void parse(BufferedReader reader, FileChannel channel) throws IOException, InterruptedException {
+        try {
+            List<List<String>> batch = new ArrayList<>(STAGE_BATCH);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                batch.add(PassengerCsvImporter.splitLine(line));
+                if (batch.size() == STAGE_BATCH) {
+                    job.rowsRead.addAndGet(batch.size());
+                    job.bytesParsed.set(channel.position());
+                    put(parsed, batch);
+                    batch = new ArrayList<>(STAGE_BATCH);
+                }
+            }
+            job.rowsRead.addAndGet(batch.size());
+            if (!batch.isEmpty()) {
+                put(parsed, batch);
+            }
+            put(parsed, Collections.emptyList());
+            return null;
+        } catch (RuntimeException | IOException | InterruptedException e) {
+            fail(e);
+            throw e;
+        }
+    }
+
+    private Void validate(int[] columns) throws InterruptedException {
+        try {
+            List<List<String>> batch;
+            while (!(batch = take(parsed)).isEmpty()) {
+                List<String[]> rows = new ArrayList<>(batch.size());
+                for (List<String> fields : batch) {
+                    String[] row = PassengerCsvImporter.toRow(fields, columns);
+                    if (row != null) {
+                        rows.add(row);
+                    }
+                }
+                job.rowsRejected.addAndGet(batch.size() - rows.size());
+                if (!rows.isEmpty()) {
+                    put(validated, rows);
+                }
+            }
+            put(validated, Collections.emptyList());
+            return null;
+        } catch (RuntimeException | InterruptedException e) {
+            fail(e);
+            throw e;
+        }
+    }
+
+    private Void dedupe() throws InterruptedException {
+        try {
+            Set<String> seen = new HashSet<>();
+            List<String[]> batch;
+            while (!(batch = take(validated)).isEmpty()) {
+                List<String[]> rows = new ArrayList<>(batch.size());
+                for (String[] row : batch) {
+                    if (seen.add(PassengerCsvImporter.naturalKey(row))) {
+                        rows.add(row);
+                    }
+                }
+                job.rowsDuplicate.addAndGet(batch.size() - rows.size());
+                if (!rows.isEmpty()) {
+                    put(unique, rows);
+                }
+            }
+            put(unique, Collections.emptyList());
+            return null;
+        } catch (RuntimeException | InterruptedException e) {
+            fail(e);
+            throw e;
+        }
+    }
+
+    private void insert() throws Exception {
+        if (job.getMode() != UploadJob.Mode.INSERT) {
+            applyDiff();
+            return;
+        }
+        List<String[]> pending = new ArrayList<>(batchSize);
+        List<String[]> batch;
+        while (!(batch = take(unique)).isEmpty()) {
+            pending.addAll(batch);
+            if (pending.size() >= batchSize) {
+                write(pending);
+                pending.clear();
+            }
+        }
+        if (!pending.isEmpty()) {
+            write(pending);
+        }
+    }
+
+    private void applyDiff() throws Exception {
+        List<String[]> manifest = new ArrayList<>();
+        List<String[]> batch;
+        while (!(batch = take(unique)).isEmpty()) {
+            manifest.addAll(batch);
+        }
+        if (job.isStopped()) {
+            throw new CancellationException();
+        }
+        PassengerCsvImporter.DiffResult diff = importer.applyDiff(manifest, job.getMode() == UploadJob.Mode.SYNC);
+        job.rowsInserted.addAndGet(diff.inserted);
+        job.rowsUpdated.addAndGet(diff.updated);
+        job.rowsUnchanged.addAndGet(diff.unchanged);
+        job.rowsRemoved.addAndGet(diff.removed);
+        job.touch();
+    }
+
+    private void write(List<String[]> rows) throws Exception {
+        if (job.isStopped()) {
+            throw new CancellationException();
+        }
+        int inserted = importer.insertBatch(rows);
+        job.rowsInserted.addAndGet(inserted);
+        job.rowsDuplicate.addAndGet(rows.size() - inserted);
+        job.touch();
+    }
+
+    private <T> void put(BlockingQueue<T> queue, T item) throws InterruptedException {
+        if (job.isStopped()) {
+            throw new CancellationException();
+        }
+        while (!queue.offer(item, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (job.isStopped()) {
+                throw new CancellationException();
+            }
+        }
+    }
+
+    private <T> T take(BlockingQueue<T> queue) throws InterruptedException {
+        T item;
+        while ((item = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+            if (job.isStopped()) {
+                throw new CancellationException();
+            }
+        }
+        return item;
+    }
+}